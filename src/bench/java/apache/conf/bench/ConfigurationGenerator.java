@@ -0,0 +1,203 @@
+package apache.conf.bench;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import apache.conf.modules.SharedModule;
+import apache.conf.modules.StaticModule;
+
+/**
+ * <p>
+ * Class used to generate a synthetic Apache server root for the benchmarks.
+ * </p>
+ * <p>
+ * The generated configuration follows the layout of a packaged Apache install. The root configuration file defines a few Defines, loads module configuration through a wildcard include, a
+ * directory of optional configuration through a directory include and the virtual hosts through a second wildcard include. The virtual hosts are spread over files of
+ * {@link #virtualHostsPerFile} hosts. Each host has Directory and Location enclosures, IfModule enclosures nested up to {@link #ifModuleDepth} levels for both loaded and unloaded modules,
+ * ${...} references, long quoted header values and a multi-line directive.
+ * </p>
+ */
+public class ConfigurationGenerator {
+
+    public static final int virtualHostsPerFile = 10;
+    public static final int moduleFiles = 20;
+    public static final int optionalFiles = 5;
+    public static final int ifModuleDepth = 6;
+
+    private static final Charset charset = Charset.forName("UTF-8");
+
+    // alternates between loaded and unloaded modules so that both sides of the masking are exercised
+    private static final String ifModules[] = { "mod_alias.c", "!mpm_winnt_module", "rewrite_module", "mod_nope.c", "headers_module", "!ssl_module", "mime_module", "status_module" };
+
+    private ConfigurationGenerator() {
+    }
+
+    /**
+     * @return the modules that the generated configuration is parsed with.
+     */
+    public static StaticModule[] getStaticModules() {
+        return new StaticModule[] { new StaticModule("core_module"), new StaticModule("so_module"), new StaticModule("http_module"), new StaticModule("mpm_event_module") };
+    }
+
+    /**
+     * @return the modules that the generated configuration is parsed with.
+     */
+    public static SharedModule[] getSharedModules() {
+        return new SharedModule[] { new SharedModule("ssl_module"), new SharedModule("rewrite_module"), new SharedModule("alias_module"), new SharedModule("headers_module"),
+                new SharedModule("log_config_module"), new SharedModule("dir_module"), new SharedModule("mime_module") };
+    }
+
+    /**
+     * Generates a server root.
+     *
+     * @param serverRoot
+     *            the directory to generate the server root in. It is created if it does not exist.
+     * @param virtualHosts
+     *            the number of virtual hosts to generate.
+     * @return the root configuration file.
+     * @throws IOException
+     */
+    public static String generate(String serverRoot, int virtualHosts) throws IOException {
+        Path root = Paths.get(serverRoot).toAbsolutePath();
+        Path conf = root.resolve("conf");
+        Files.createDirectories(conf.resolve("mods-enabled"));
+        Files.createDirectories(conf.resolve("conf.d"));
+        Files.createDirectories(conf.resolve("sites-enabled"));
+
+        Path rootConfFile = conf.resolve("httpd.conf");
+        write(rootConfFile, getRootConfiguration(root));
+
+        for (int i = 0; i < moduleFiles; i++) {
+            write(conf.resolve("mods-enabled").resolve(String.format("%02d-module.conf", i)), getModuleConfiguration(i));
+        }
+
+        for (int i = 0; i < optionalFiles; i++) {
+            write(conf.resolve("conf.d").resolve("optional-" + i + ".conf"), getOptionalConfiguration(i));
+        }
+
+        for (int first = 0; first < virtualHosts; first += virtualHostsPerFile) {
+            StringBuilder content = new StringBuilder();
+            for (int i = first; i < Math.min(first + virtualHostsPerFile, virtualHosts); i++) {
+                appendVirtualHost(content, i);
+            }
+            write(conf.resolve("sites-enabled").resolve(String.format("%05d-sites.conf", first / virtualHostsPerFile)), content);
+        }
+
+        return rootConfFile.toString();
+    }
+
+    /**
+     * @return the file that contains the virtual host.
+     */
+    public static String getVirtualHostFile(String serverRoot, int virtualHost) {
+        return Paths.get(serverRoot).toAbsolutePath().resolve("conf").resolve("sites-enabled").resolve(String.format("%05d-sites.conf", virtualHost / virtualHostsPerFile)).toString();
+    }
+
+    private static CharSequence getRootConfiguration(Path root) {
+        StringBuilder content = new StringBuilder();
+        content.append("# Generated benchmark configuration\n");
+        content.append("ServerRoot \"").append(root.toString().replace('\\', '/')).append("\"\n");
+        content.append("Define SITE_ROOT \"").append(root.resolve("htdocs").toString().replace('\\', '/')).append("\"\n");
+        content.append("Define LOG_DIR logs\n");
+        content.append("Define ADMIN webmaster@example.com\n");
+        content.append("\n");
+        content.append("Listen 80\n");
+        content.append("ServerAdmin ${ADMIN}\n");
+        content.append("ServerName localhost\n");
+        content.append("DocumentRoot \"${SITE_ROOT}\"\n");
+        content.append("ErrorLog \"${LOG_DIR}/error_log\"\n");
+        content.append("LogLevel warn\n");
+        content.append("LogFormat \"%h %l %u %t \\\"%r\\\" %>s %b \\\"%{Referer}i\\\" \\\"%{User-Agent}i\\\"\" combined\n");
+        content.append("\n");
+        content.append("<IfModule ssl_module>\n");
+        content.append("    Listen 443\n");
+        content.append("    SSLCipherSuite \"ECDHE-ECDSA-AES256-GCM-SHA384:ECDHE-RSA-AES256-GCM-SHA384:ECDHE-ECDSA-CHACHA20-POLY1305:ECDHE-RSA-CHACHA20-POLY1305\"\n");
+        content.append("</IfModule>\n");
+        content.append("\n");
+        content.append("<Directory />\n");
+        content.append("    AllowOverride none\n");
+        content.append("    Require all denied\n");
+        content.append("</Directory>\n");
+        content.append("\n");
+        appendIfModules(content, "", 0, "Timeout 60");
+        content.append("\n");
+        content.append("Include conf/mods-enabled/*.conf\n");
+        content.append("IncludeOptional conf/conf.d\n");
+        content.append("Include conf/sites-enabled/*.conf\n");
+
+        return content;
+    }
+
+    private static CharSequence getModuleConfiguration(int module) {
+        StringBuilder content = new StringBuilder();
+        String name = ifModules[module % ifModules.length];
+        content.append("<IfModule ").append(name).append(">\n");
+        for (int i = 0; i < 10; i++) {
+            content.append("    # setting ").append(i).append(" of module ").append(module).append("\n");
+            content.append("    AddType application/x-benchmark-").append(module).append('-').append(i).append(" .b").append(module).append('x').append(i).append("\n");
+        }
+        content.append("    <IfModule !mod_nope.c>\n");
+        content.append("        Alias /static-").append(module).append(" \"${SITE_ROOT}/static/").append(module).append("\"\n");
+        content.append("    </IfModule>\n");
+        content.append("</IfModule>\n");
+
+        return content;
+    }
+
+    private static CharSequence getOptionalConfiguration(int file) {
+        StringBuilder content = new StringBuilder();
+        content.append("<Location /server-status-").append(file).append(">\n");
+        content.append("    SetHandler server-status\n");
+        content.append("    Require ip 10.0.0.0/8 192.168.0.0/16\n");
+        content.append("</Location>\n");
+        content.append("Header always set X-Optional-").append(file).append(" \"value with spaces and a ${ADMIN} reference\"\n");
+
+        return content;
+    }
+
+    private static void appendVirtualHost(StringBuilder content, int virtualHost) {
+        String name = "site-" + virtualHost;
+
+        content.append("<VirtualHost *:").append(virtualHost % 2 == 0 ? 80 : 443).append(">\n");
+        content.append("    ServerName ").append(name).append(".example.com\n");
+        content.append("    ServerAlias www.").append(name).append(".example.com ").append(name).append(".example.net\n");
+        content.append("    ServerAdmin ${ADMIN}\n");
+        content.append("    DocumentRoot \"${SITE_ROOT}/").append(name).append("\"\n");
+        content.append("    ErrorLog ${LOG_DIR}/").append(name).append("-error.log\n");
+        content.append("    CustomLog ${LOG_DIR}/").append(name).append("-access.log combined\n");
+        content.append("    Header always set Content-Security-Policy \"default-src 'self'; script-src 'self' https://cdn.example.com; style-src 'self' 'unsafe-inline'; img-src 'self' data: https:; frame-ancestors 'none'\"\n");
+        content.append("    RewriteRule ^/old/(.*)$ \\\n");
+        content.append("        /new/$1 [R=301,L]\n");
+        content.append("    <Directory \"${SITE_ROOT}/").append(name).append("\">\n");
+        content.append("        Options Indexes FollowSymLinks\n");
+        content.append("        AllowOverride All\n");
+        content.append("        Require all granted\n");
+        content.append("    </Directory>\n");
+        content.append("    <Location /admin>\n");
+        content.append("        Require ip 10.0.0.0/8\n");
+        content.append("    </Location>\n");
+        appendIfModules(content, "    ", virtualHost, "RewriteEngine On");
+        content.append("</VirtualHost>\n");
+        content.append("\n");
+    }
+
+    private static void appendIfModules(StringBuilder content, String indent, int first, String directive) {
+        String current = indent;
+        for (int depth = 0; depth < ifModuleDepth; depth++) {
+            content.append(current).append("<IfModule ").append(ifModules[(first + depth) % ifModules.length]).append(">\n");
+            current += "    ";
+            content.append(current).append(directive).append("\n");
+        }
+        for (int depth = ifModuleDepth - 1; depth >= 0; depth--) {
+            current = current.substring(4);
+            content.append(current).append("</IfModule>\n");
+        }
+    }
+
+    private static void write(Path file, CharSequence content) throws IOException {
+        Files.write(file, content.toString().getBytes(charset));
+    }
+}
@@ -0,0 +1,82 @@
+package apache.conf.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import apache.conf.parser.DirectiveParser;
+import apache.conf.parser.EnclosureParser;
+
+/**
+ * <p>
+ * Benchmarks of the edit methods against a generated configuration.
+ * </p>
+ * <p>
+ * Each benchmark alternates between two edits so the configuration keeps the same size for the whole trial. Every edit commits its files and the next edit parses the configuration again, so the
+ * results include the parse that follows an edit. Writes are not synced to disk by default so the results measure the parser rather than the disk, run with -p syncWrites=true to include the sync.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditBenchmark extends ServerRootState {
+
+    private static final Pattern anyValue = Pattern.compile(".*");
+    private static final Pattern firstDirectory = Pattern.compile("/site-0\"");
+    private static final Pattern listenPort = Pattern.compile("8080");
+
+    @Param({ "false" })
+    public boolean syncWrites;
+
+    private DirectiveParser directiveParser;
+    private EnclosureParser enclosureParser;
+    private String virtualHostFile;
+    private boolean toggle;
+
+    @Override
+    protected void createParsers() throws Exception {
+        directiveParser = new DirectiveParser(rootConfFile, serverRoot, ConfigurationGenerator.getStaticModules(), ConfigurationGenerator.getSharedModules());
+        directiveParser.setSyncWrites(syncWrites);
+
+        enclosureParser = new EnclosureParser(rootConfFile, serverRoot, ConfigurationGenerator.getStaticModules(), ConfigurationGenerator.getSharedModules());
+        enclosureParser.setSyncWrites(syncWrites);
+
+        virtualHostFile = ConfigurationGenerator.getVirtualHostFile(serverRoot, 0);
+    }
+
+    @Benchmark
+    public void setDirectiveInFile() throws Exception {
+        toggle = !toggle;
+        directiveParser.setDirectiveInFile("ServerAdmin", virtualHostFile, toggle ? "admin@example.com" : "${ADMIN}", anyValue, false, true);
+    }
+
+    @Benchmark
+    public void insertAndRemoveDirective() throws Exception {
+        if (!directiveParser.insertDirectiveBeforeOrAfterFirstFound("Listen", "Listen 8080", false, true)) {
+            throw new IllegalStateException("No Listen directive to insert after");
+        }
+
+        // the directive is removed from the file that the insert chose, so the configuration keeps the same size
+        String file = directiveParser.getDirectiveFile("Listen", listenPort, true);
+        if (file == null || !directiveParser.removeDirectiveFromFile("Listen", file, listenPort, false, true)) {
+            throw new IllegalStateException("The inserted Listen directive was not removed");
+        }
+    }
+
+    @Benchmark
+    public boolean replaceEnclosure() throws Exception {
+        toggle = !toggle;
+        return enclosureParser.replaceEnclosure("Directory", firstDirectory, "<Directory \"${SITE_ROOT}/site-0\">\n    Options " + (toggle ? "None" : "Indexes FollowSymLinks")
+                + "\n    AllowOverride All\n    Require all granted\n</Directory>", true);
+    }
+}
@@ -0,0 +1,76 @@
+package apache.conf.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import apache.conf.parser.ConfigurationSnapshot;
+import apache.conf.parser.Directive;
+import apache.conf.parser.DirectiveParser;
+import apache.conf.parser.Enclosure;
+import apache.conf.parser.EnclosureParser;
+import apache.conf.parser.ParsableLine;
+
+/**
+ * <p>
+ * Benchmarks of the read only queries against a generated configuration.
+ * </p>
+ * <p>
+ * The query benchmarks run against a parsed configuration, which is how a long lived parser answers most queries. {@link #parseCached()} parses the configuration again from the file cache, which
+ * is the cost of the first query after an edit. {@link #parseUncached()} also reads every file again, which is the cost of the first query of a new parser.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark extends ServerRootState {
+
+    private DirectiveParser directiveParser;
+    private EnclosureParser enclosureParser;
+
+    @Override
+    protected void createParsers() throws Exception {
+        directiveParser = new DirectiveParser(rootConfFile, serverRoot, ConfigurationGenerator.getStaticModules(), ConfigurationGenerator.getSharedModules());
+        enclosureParser = new EnclosureParser(rootConfFile, serverRoot, ConfigurationGenerator.getStaticModules(), ConfigurationGenerator.getSharedModules());
+    }
+
+    @Benchmark
+    public ParsableLine[] getConfigurationParsableLines() throws Exception {
+        return directiveParser.getConfigurationParsableLines(true);
+    }
+
+    @Benchmark
+    public Directive[] getDirective() throws Exception {
+        return directiveParser.getDirective("ServerName", true);
+    }
+
+    @Benchmark
+    public Enclosure[] getEnclosure() throws Exception {
+        return enclosureParser.getEnclosure("VirtualHost", true);
+    }
+
+    @Benchmark
+    public String[] getActiveConfFileList() throws Exception {
+        return directiveParser.getActiveConfFileList();
+    }
+
+    @Benchmark
+    public ConfigurationSnapshot parseCached() throws Exception {
+        directiveParser.invalidateConfigurationSnapshot();
+        return directiveParser.getConfigurationSnapshot();
+    }
+
+    @Benchmark
+    public ConfigurationSnapshot parseUncached() throws Exception {
+        directiveParser.clearCache();
+        return directiveParser.getConfigurationSnapshot();
+    }
+}
@@ -0,0 +1,40 @@
+package apache.conf.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark state that generates a server root with {@link ConfigurationGenerator} in a temporary directory for each trial and deletes it afterwards. Subclasses create their parsers in
+ * {@link #createParsers()} once the server root exists.
+ */
+@State(Scope.Benchmark)
+public abstract class ServerRootState {
+
+    @Param({ "10", "200", "2000" })
+    public int virtualHosts;
+
+    protected String serverRoot;
+    protected String rootConfFile;
+
+    @Setup
+    public void generate() throws Exception {
+        serverRoot = Files.createTempDirectory("apache-conf-bench").toString();
+        rootConfFile = ConfigurationGenerator.generate(serverRoot, virtualHosts);
+
+        createParsers();
+    }
+
+    protected abstract void createParsers() throws Exception;
+
+    @TearDown
+    public void delete() throws IOException {
+        FileUtils.deleteDirectory(new java.io.File(serverRoot));
+    }
+}
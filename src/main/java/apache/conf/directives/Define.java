@@ -1,7 +1,8 @@
 package apache.conf.directives;
 
 import java.util.ArrayList;
-import java.util.regex.Pattern;
+import java.util.HashMap;
+import java.util.Map;
 
 import apache.conf.global.Const;
 import apache.conf.global.Utils;
@@ -100,16 +101,70 @@ public class Define {
     }
 
     public static String replaceDefinesInString(Define defines[], String line) {
-        String newLine = line;
+        HashMap<String, Define> defineMap = new HashMap<String, Define>();
+        for (Define define : defines) {
+            defineMap.put(define.getName(), define);
+        }
 
-        String regex;
-        for (int i = 0; i < defines.length; i++) {
-            regex = "\\$\\{ *" + defines[i].getName() + " *\\}";
+        return replaceDefinesInString(defineMap, line, false);
+    }
+
+    /**
+     * Replaces every ${NAME} reference in a line with the value of the Define called NAME. The line is scanned once and a new String is only created when a reference is replaced. References to
+     * unknown names are left in the line. Replaced values are not scanned for further references.
+     * 
+     * @param defines
+     *            the Defines keyed by name.
+     * @param line
+     *            the line to replace references in.
+     * @param useEnvironment
+     *            true to replace references that do not match a Define with the environment variable of the same name, as Apache does.
+     * @return the line with all known references replaced.
+     */
+    public static String replaceDefinesInString(Map<String, Define> defines, String line, boolean useEnvironment) {
+
+        int start = line.indexOf("${");
+        if (start == -1) {
+            return line;
+        }
+
+        StringBuilder newLine = null;
+        int copied = 0;
+
+        while (start != -1) {
+            int end = line.indexOf('}', start + 2);
+            if (end == -1) {
+                break;
+            }
+
+            String name = line.substring(start + 2, end).trim();
+
+            String value = null;
+            Define define = defines.get(name);
+            if (define != null) {
+                value = define.getValue();
+            } else if (useEnvironment) {
+                value = System.getenv(name);
+            }
+
+            if (value == null) {
+                start = line.indexOf("${", start + 2);
+                continue;
+            }
+
+            if (newLine == null) {
+                newLine = new StringBuilder(line.length() + value.length());
+            }
+            newLine.append(line, copied, start).append(value);
+
+            copied = end + 1;
+            start = line.indexOf("${", copied);
+        }
 
-            Pattern pattern = Pattern.compile(regex);
-            newLine = pattern.matcher(line).replaceAll(defines[i].getValue());
+        if (newLine == null) {
+            return line;
         }
 
-        return newLine;
+        return newLine.append(line, copied, line.length()).toString();
     }
 }
@@ -0,0 +1,232 @@
+package apache.conf.global;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.regex.Pattern;
+
+import apache.conf.parser.File;
+
+/**
+ * <p>
+ * Class used to replace files without readers ever seeing a partially written file.
+ * </p>
+ * <p>
+ * The content of each file is streamed to a temporary file in the same directory as the target. When {@link #commit()} is called the temporary files are optionally synced to disk and then renamed
+ * over their targets, so Apache sees either the old or the new content of a file. Several files can be written with one writer, in which case all of them are synced before the first one is
+ * renamed and each directory is synced once at the end.
+ * </p>
+ * <p>
+ * The temporary files are hidden files named .&lt;name&gt;.&lt;number&gt;.tmp, so they never match a wildcard Include such as *.conf. Apache does not match hidden files with wildcards, and
+ * {@link #isTemporaryFile(String)} lets the parser skip them in directory Includes as well.
+ * </p>
+ * <p>
+ * An existing target keeps its POSIX permissions, owner and group where the process is allowed to set them, a new target gets the permissions of {@link Utils#setPermissions(File)}. A writer can
+ * only be committed once, {@link #abort()} removes the temporary files of a writer that was not committed.
+ * </p>
+ */
+public class AtomicFileWriter {
+
+    private static final int bufferSize = 8192;
+    private static final String temporarySuffix = ".tmp";
+    private static final Pattern temporaryFile = Pattern.compile("\\..+\\.[0-9]+" + Pattern.quote(temporarySuffix));
+
+    private final boolean sync;
+    private final ArrayList<PendingFile> pendingFiles = new ArrayList<PendingFile>();
+
+    /**
+     * @param sync
+     *            true to force the written files and their directories to disk before {@link #commit()} returns.
+     */
+    public AtomicFileWriter(boolean sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * Writes the content to a temporary file next to the target. The target is not changed until {@link #commit()} is called.
+     *
+     * @param file
+     *            the file to replace. A symbolic link is resolved so the file it points to is replaced.
+     * @param content
+     *            the content of the file
+     * @param charset
+     *            the charset to use when writing the file
+     * @throws IOException
+     */
+    public void write(File file, StringBuffer content, Charset charset) throws IOException {
+        FileChannel channel = open(file);
+        try {
+            Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), charset);
+
+            // copy through a fixed buffer so the content is never converted into one String
+            char buffer[] = new char[bufferSize];
+            int length = content.length();
+            for (int start = 0; start < length; start += bufferSize) {
+                int end = Math.min(start + bufferSize, length);
+                content.getChars(start, end, buffer, 0);
+                writer.write(buffer, 0, end - start);
+            }
+
+            writer.flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Opens a temporary file next to the target for the caller to write the content of the target. The caller must close the channel. The target is not changed until {@link #commit()} is called.
+     *
+     * @param file
+     *            the file to replace. A symbolic link is resolved so the file it points to is replaced.
+     * @return a channel positioned at the start of the empty temporary file.
+     * @throws IOException
+     */
+    public FileChannel open(File file) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        if (Files.exists(target)) {
+            target = target.toRealPath();
+        }
+
+        Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName() + ".", temporarySuffix);
+        pendingFiles.add(new PendingFile(temp, target));
+
+        return FileChannel.open(temp, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Renames every written file over its target.
+     *
+     * @throws IOException
+     *             if a file can not be synced or renamed. Files renamed before the failure stay replaced.
+     */
+    public void commit() throws IOException {
+        if (sync) {
+            for (PendingFile pendingFile : pendingFiles) {
+                force(pendingFile.temp);
+            }
+        }
+
+        LinkedHashSet<Path> directories = new LinkedHashSet<Path>();
+        while (!pendingFiles.isEmpty()) {
+            PendingFile pendingFile = pendingFiles.get(0);
+
+            boolean exists = Files.exists(pendingFile.target);
+            if (exists && !Utils.isWindows()) {
+                copyAttributes(pendingFile.target, pendingFile.temp);
+            }
+
+            try {
+                Files.move(pendingFile.temp, pendingFile.target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(pendingFile.temp, pendingFile.target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            pendingFiles.remove(0);
+
+            if (!exists) {
+                Utils.setPermissions(new File(pendingFile.target.toFile()));
+            }
+
+            directories.add(pendingFile.target.getParent());
+        }
+
+        if (sync && !Utils.isWindows()) {
+            // the renames are only durable once the directories are synced
+            for (Path directory : directories) {
+                force(directory);
+            }
+        }
+    }
+
+    /**
+     * Deletes the temporary files that have not been renamed. The targets are not changed.
+     */
+    public void abort() {
+        for (PendingFile pendingFile : pendingFiles) {
+            try {
+                Files.deleteIfExists(pendingFile.temp);
+            } catch (IOException e) {
+                // the temporary file is left behind
+            }
+        }
+
+        pendingFiles.clear();
+    }
+
+    /**
+     * @param fileName
+     *            the name of a file without its directory.
+     * @return true if the name is the name of a temporary file of a writer.
+     */
+    public static boolean isTemporaryFile(String fileName) {
+        return temporaryFile.matcher(fileName).matches();
+    }
+
+    /**
+     * Copies the POSIX permissions, owner and group of the target to the temporary file.
+     */
+    private static void copyAttributes(Path target, Path temp) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+        if (view == null) {
+            // the file system has no POSIX attributes to keep
+            return;
+        }
+
+        PosixFileAttributes attributes = Files.readAttributes(target, PosixFileAttributes.class);
+        PosixFileAttributes tempAttributes = view.readAttributes();
+
+        // only a privileged process can give a file away, the file is then owned by the user of this process
+        UserPrincipal owner = attributes.owner();
+        if (!owner.equals(tempAttributes.owner())) {
+            try {
+                view.setOwner(owner);
+            } catch (IOException e) {
+                // not permitted
+            }
+        }
+
+        GroupPrincipal group = attributes.group();
+        if (!group.equals(tempAttributes.group())) {
+            try {
+                view.setGroup(group);
+            } catch (IOException e) {
+                // not permitted
+            }
+        }
+
+        // the permissions are set last as changing the owner may clear the setuid and setgid bits
+        view.setPermissions(attributes.permissions());
+    }
+
+    private static void force(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, Files.isDirectory(path) ? StandardOpenOption.READ : StandardOpenOption.WRITE);
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static class PendingFile {
+        private final Path temp;
+        private final Path target;
+
+        PendingFile(Path temp, Path target) {
+            this.temp = temp;
+            this.target = target;
+        }
+    }
+}
@@ -18,5 +18,7 @@ public class Const {
     public final static String replaceSpacesInValuesRegex = "\\s+(?=([^\"']*[\"'][^\"']*[\"'])*[^\"']*$)";
     // Constants to search for apache directives
     public final static String defineDirective = "Define";
+    public final static String undefineDirective = "UnDefine";
+    public final static String loadModuleDirective = "LoadModule";
 
 }
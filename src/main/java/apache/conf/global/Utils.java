@@ -1,12 +1,16 @@
 package apache.conf.global;
 
-import java.io.BufferedReader;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringWriter;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -24,6 +28,8 @@ import apache.conf.parser.File;
 
 public class Utils {
 
+    private static volatile Set<PosixFilePermission> filePermissions = PosixFilePermissions.fromString("rwxrwxrwx");
+
     /**
      * Reads an input file and returns a String.
      * 
@@ -310,29 +316,76 @@ public class Utils {
     public static String RunProcessWithOutput(String[] command) throws IOException, InterruptedException {
         Process p = Runtime.getRuntime().exec(command);
 
-        StringBuffer output = new StringBuffer();
         try {
-            BufferedReader inputReader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            int c;
-            while ((c = inputReader.read()) != -1) {
-                output.append((char) c);
-            }
-            inputReader.close();
+            // drain stderr while stdout is read so a full error pipe can not block the process
+            StreamReaderThread errorReader = new StreamReaderThread(p.getErrorStream());
+            errorReader.start();
 
-            BufferedReader errorReader = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-            while ((c = errorReader.read()) != -1) {
-                output.append((char) c);
+            String output = readStream(p.getInputStream());
+
+            errorReader.join();
+            if (errorReader.getException() != null) {
+                throw errorReader.getException();
             }
-            errorReader.close();
+
+            return output + errorReader.getOutput();
         } finally {
             p.waitFor();
             p.destroy();
         }
+    }
+
+    private static String readStream(InputStream stream) throws IOException {
+        Reader reader = new InputStreamReader(stream);
+
+        StringBuilder output = new StringBuilder();
+        try {
+            char buffer[] = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                output.append(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+
         return output.toString();
     }
 
     /**
-     * Writes a StringBuffer to a file. If the file already exists it will be overwritten.
+     * Thread used to read a process stream to the end.
+     */
+    private static class StreamReaderThread extends Thread {
+        private final InputStream stream;
+        private String output = "";
+        private IOException exception;
+
+        StreamReaderThread(InputStream stream) {
+            this.stream = stream;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                output = readStream(stream);
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+
+        String getOutput() {
+            return output;
+        }
+
+        IOException getException() {
+            return exception;
+        }
+    }
+
+    /**
+     * Writes a StringBuffer to a file. If the file already exists it will be replaced. The content is written to a temporary file that is renamed over the file, so readers never see a partially
+     * written file.
      * 
      * @param file
      *            the file to write to
@@ -343,34 +396,88 @@ public class Utils {
      * @throws IOException
      */
     public static void writeStringBufferToFile(File file, StringBuffer buffer, Charset charset) throws IOException {
-        boolean exists = file.exists();
-
-        FileUtils.writeStringToFile(file, buffer.toString(), charset);
+        writeStringBufferToFile(file, buffer, charset, false);
+    }
 
-        if (!exists) {
-            setPermissions(file);
+    /**
+     * Writes a StringBuffer to a file. If the file already exists it will be replaced. The content is written to a temporary file that is renamed over the file, so readers never see a partially
+     * written file.
+     * 
+     * @param file
+     *            the file to write to
+     * @param buffer
+     *            the content to write to the file
+     * @param charset
+     *            the charset to use when writing to the file
+     * @param sync
+     *            true to sync the file to disk before returning
+     * @throws IOException
+     * @see AtomicFileWriter
+     */
+    public static void writeStringBufferToFile(File file, StringBuffer buffer, Charset charset, boolean sync) throws IOException {
+        AtomicFileWriter writer = new AtomicFileWriter(sync);
+        try {
+            writer.write(file, buffer, charset);
+            writer.commit();
+        } finally {
+            writer.abort();
         }
     }
 
     /**
-     * Set file and directory permissions for reading and writing
+     * Sets the permissions used by {@link #setPermissions(File)}. The default is "rwxrwxrwx".
+     * 
+     * @param permissions
+     *            the permissions in the symbolic form used by ls eg. "rw-r--r--"
+     * @throws IllegalArgumentException
+     *             if the permissions are not 9 characters of the form "rwxrwxrwx"
+     */
+    public static void setFilePermissions(String permissions) {
+        filePermissions = PosixFilePermissions.fromString(permissions);
+    }
+
+    /**
+     * 
+     * @return the permissions used by {@link #setPermissions(File)} in the symbolic form used by ls eg. "rw-r--r--"
+     */
+    public static String getFilePermissions() {
+        return PosixFilePermissions.toString(filePermissions);
+    }
+
+    /**
+     * Set file and directory permissions to the permissions given to {@link #setFilePermissions(String)}. POSIX file systems get the permissions set directly. Other file systems only have read, write
+     * and execute flags for the owner and for everyone, so a permission of the group or of others is given to everyone and a permission of only the owner is given to the owner alone.
      * 
      * @param file
      *            the file to set permissions on
-     * @throws IOException
-     * @throws InterruptedException
      */
     public static void setPermissions(File file) {
+        Set<PosixFilePermission> permissions = filePermissions;
+
         try {
-            file.setReadable(true, false);
-            file.setWritable(true, false);
-            file.setExecutable(true, false);
+            Files.setPosixFilePermissions(file.toPath(), permissions);
+        } catch (UnsupportedOperationException e) {
+            // the flag is first cleared for everyone, as setting it for the owner alone leaves the flag of everyone else unchanged
+            if (permissions.contains(PosixFilePermission.GROUP_READ) || permissions.contains(PosixFilePermission.OTHERS_READ)) {
+                file.setReadable(true, false);
+            } else {
+                file.setReadable(false, false);
+                file.setReadable(permissions.contains(PosixFilePermission.OWNER_READ), true);
+            }
 
-            if (!isWindows()) {
-                String command[] = { "chmod", "777", file.getAbsolutePath() };
-                Utils.RunProcessWithoutOutput(command);
+            if (permissions.contains(PosixFilePermission.GROUP_WRITE) || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+                file.setWritable(true, false);
+            } else {
+                file.setWritable(false, false);
+                file.setWritable(permissions.contains(PosixFilePermission.OWNER_WRITE), true);
             }
 
+            if (permissions.contains(PosixFilePermission.GROUP_EXECUTE) || permissions.contains(PosixFilePermission.OTHERS_EXECUTE)) {
+                file.setExecutable(true, false);
+            } else {
+                file.setExecutable(false, false);
+                file.setExecutable(permissions.contains(PosixFilePermission.OWNER_EXECUTE), true);
+            }
         } catch (Exception e) {
             StringWriter sw = new StringWriter();
             e.printStackTrace(new PrintWriter(sw));
@@ -0,0 +1,97 @@
+package apache.conf.modules;
+
+import apache.conf.parser.Parser;
+
+/**
+ *
+ * <p>
+ * This class is used to obtain the Static and Shared Modules without running the Apache binary.
+ * </p>
+ * <p>
+ * Shared Modules are taken from the LoadModule directives that are reachable from the root configuration file. IfModule statements are respected, a LoadModule directive inside of an IfModule
+ * statement is only used if the module of the IfModule statement was loaded before it.
+ * </p>
+ * <p>
+ * Static Modules are compiled into Apache and can not be read from the configuration. They are taken from the list given to the constructor. A list obtained earlier with
+ * {@link ModuleParser#getModules()} can be reused here, otherwise {@link #defaultStaticModules} is used.
+ * </p>
+ * <p>
+ * Example Shared Module Load Include: "LoadModule authn_core_module modules/mod_authn_core.so"
+ * </p>
+ */
+public class LoadModuleParser extends Parser {
+
+    /**
+     * The Static Modules of a default Apache 2.4 build with a shared MPM.
+     */
+    public final static String defaultStaticModules[] = { "core_module", "so_module", "http_module" };
+
+    /**
+     * LoadModuleParser constructor. The {@link #defaultStaticModules} are used as the Static Modules.
+     *
+     * @param rootConfFile
+     *            the Apache root configuration file.
+     * @param serverRoot
+     *            the Apache server root
+     * @throws Exception
+     *             if the rootConfFile or serverRoot do not exist
+     */
+    public LoadModuleParser(String rootConfFile, String serverRoot) throws Exception {
+        this(rootConfFile, serverRoot, getDefaultStaticModules());
+    }
+
+    /**
+     * @param rootConfFile
+     *            the Apache root configuration file.
+     * @param serverRoot
+     *            the Apache server root
+     * @param staticModules
+     *            the modules that are compiled into Apache.
+     * @throws Exception
+     *             if the rootConfFile or serverRoot do not exist
+     */
+    public LoadModuleParser(String rootConfFile, String serverRoot, StaticModule staticModules[]) throws Exception {
+        super(rootConfFile, serverRoot, staticModules, new SharedModule[0]);
+    }
+
+    @Override
+    protected boolean isLoadModuleDiscovery() {
+        return true;
+    }
+
+    /**
+     * @return an array of all Static Modules.
+     */
+    public StaticModule[] getStaticModules() {
+        return staticModules.clone();
+    }
+
+    /**
+     * Function used to get a list of all Shared Modules. The configuration is only parsed again if it has changed since the last call.
+     *
+     * @return an array of all Shared Modules.
+     * @throws Exception
+     *             if there is an error parsing the configuration
+     */
+    public SharedModule[] getSharedModules() throws Exception {
+        return getLoadModuleSharedModules();
+    }
+
+    /**
+     * @return the Static and Shared Modules.
+     * @throws Exception
+     *             if there is an error parsing the configuration
+     */
+    public ModuleList getModules() throws Exception {
+        return new ModuleList(getStaticModules(), getSharedModules());
+    }
+
+    private static StaticModule[] getDefaultStaticModules() {
+        StaticModule modules[] = new StaticModule[defaultStaticModules.length];
+        for (int i = 0; i < modules.length; i++) {
+            modules[i] = new StaticModule(defaultStaticModules[i]);
+        }
+
+        return modules;
+    }
+}
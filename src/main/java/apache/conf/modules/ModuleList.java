@@ -0,0 +1,31 @@
+package apache.conf.modules;
+
+/**
+ * <p>
+ * Class used to model the modules reported by a single run of the Apache binary with the -M option.
+ * </p>
+ */
+public class ModuleList {
+
+    private final StaticModule staticModules[];
+    private final SharedModule sharedModules[];
+
+    public ModuleList(StaticModule staticModules[], SharedModule sharedModules[]) {
+        this.staticModules = staticModules;
+        this.sharedModules = sharedModules;
+    }
+
+    /**
+     * @return an array of all Static Modules.
+     */
+    public StaticModule[] getStaticModules() {
+        return staticModules.clone();
+    }
+
+    /**
+     * @return an array of all Shared Modules.
+     */
+    public SharedModule[] getSharedModules() {
+        return sharedModules.clone();
+    }
+}
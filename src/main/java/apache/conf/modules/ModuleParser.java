@@ -1,12 +1,31 @@
 package apache.conf.modules;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 import apache.conf.global.Utils;
 import apache.conf.parser.File;
 
+/**
+ * <p>
+ * This class is used to obtain the Static and Shared Modules from an Apache binary.
+ * </p>
+ * <p>
+ * The binary is run once with the -M option and its output is cached by binary path and last modified time, so repeated module lookups for the same binary do not start a new process. The output of
+ * -M also depends on the LoadModule directives in the configuration, call {@link #clearModuleCache()} after LoadModule directives have been changed.
+ * </p>
+ */
 public class ModuleParser {
 
+    private static final String staticModulesMarker = "(static)";
+    private static final String sharedModulesMarker = "(shared)";
+    private static final String syntaxError = "syntax error";
+
+    private static final ConcurrentHashMap<String, CommandOutput> commandCache = new ConcurrentHashMap<String, CommandOutput>();
+
     protected File binFile;
 
     public ModuleParser(File binFile) throws Exception {
@@ -17,8 +36,58 @@ public class ModuleParser {
         this.binFile = binFile;
     }
 
+    /**
+     * Gets the Static and Shared Modules from a single run of the binary file with the -M option.
+     * 
+     * @return the Static and Shared Modules.
+     * @throws Exception
+     *             if there is an error obtaining modules
+     */
+    public ModuleList getModules() throws Exception {
+        String output = runModuleCommand();
+
+        ArrayList<StaticModule> staticModules = new ArrayList<StaticModule>();
+        ArrayList<SharedModule> sharedModules = new ArrayList<SharedModule>();
+
+        BufferedReader reader = new BufferedReader(new StringReader(output));
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.toLowerCase().contains(syntaxError)) {
+                throw new Exception("There is an error when obtaining modules");
+            }
+
+            if (line.contains(staticModulesMarker)) {
+                staticModules.add(new StaticModule(line.replace(staticModulesMarker, "").trim()));
+            } else if (line.contains(sharedModulesMarker)) {
+                sharedModules.add(new SharedModule(line.replace(sharedModulesMarker, "").trim()));
+            }
+        }
+        reader.close();
+
+        Utils.removeDuplicates(staticModules);
+        Utils.removeDuplicates(sharedModules);
+
+        return new ModuleList(staticModules.toArray(new StaticModule[staticModules.size()]), sharedModules.toArray(new SharedModule[sharedModules.size()]));
+    }
+
+    /**
+     * Removes all cached module command output so the next lookup runs the binary again.
+     */
+    public static void clearModuleCache() {
+        commandCache.clear();
+    }
+
     protected String runModuleCommand() throws IOException, InterruptedException {
 
+        String cacheKey = binFile.getAbsolutePath();
+        long lastModified = binFile.lastModified();
+
+        CommandOutput cached = commandCache.get(cacheKey);
+        if (cached != null && cached.lastModified == lastModified) {
+            return cached.output;
+        }
+
         String commandString;
         if (Utils.isWindows()) {
             commandString = "cmd,/c," + binFile.getAbsolutePath() + ",-M";
@@ -29,8 +98,23 @@ public class ModuleParser {
         String command[] = commandString.split(",");
         String output = Utils.RunProcessWithOutput(command);
 
+        // a syntax error comes from the configuration, not the binary, so it is not cached
+        if (!output.toLowerCase().contains(syntaxError)) {
+            commandCache.put(cacheKey, new CommandOutput(lastModified, output));
+        }
+
         return output;
 
     }
 
+    private static class CommandOutput {
+        private final long lastModified;
+        private final String output;
+
+        CommandOutput(long lastModified, String output) {
+            this.lastModified = lastModified;
+            this.output = output;
+        }
+    }
+
 }
@@ -1,15 +1,7 @@
 package apache.conf.modules;
 
-import java.io.BufferedReader;
-
 import apache.conf.parser.File;
 
-import java.io.StringReader;
-import java.util.ArrayList;
-
-import apache.conf.global.Const;
-import apache.conf.global.Utils;
-
 /**
  * 
  * <p>
@@ -50,26 +42,6 @@ public class SharedModuleParser extends ModuleParser {
      * 
      */
     public SharedModule[] getSharedModules() throws Exception {
-        String output = runModuleCommand();
-
-        ArrayList<SharedModule> modules = new ArrayList<SharedModule>();
-
-        BufferedReader reader = new BufferedReader(new StringReader(output));
-
-        String line;
-        while ((line = reader.readLine()) != null) {
-            if (line.matches(".*(?i:syntax error).*")) {
-                throw new Exception("There is an error when obtaining modules");
-            }
-
-            if (line.matches(Const.sharedModulesSearchString)) {
-                modules.add(new SharedModule(line.replaceAll(Const.sharedModulesReplaceString, "").trim()));
-            }
-        }
-        reader.close();
-
-        Utils.removeDuplicates(modules);
-
-        return modules.toArray(new SharedModule[modules.size()]);
+        return getModules().getSharedModules();
     }
 }
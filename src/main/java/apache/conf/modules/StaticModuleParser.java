@@ -1,12 +1,6 @@
 package apache.conf.modules;
 
-import java.io.BufferedReader;
 import apache.conf.parser.File;
-import java.io.StringReader;
-import java.util.ArrayList;
-
-import apache.conf.global.Const;
-import apache.conf.global.Utils;
 
 /**
  * 
@@ -38,33 +32,12 @@ public class StaticModuleParser extends ModuleParser {
     }
 
     /**
-     * Gets a list of all statically loaded modules. These modules can never change so it is recommended that the result of this function be cached whenever possible.
+     * Gets a list of all statically loaded modules. These modules can never change so the output of the binary is cached by the ModuleParser.
      * 
      * @return an array of all Static Modules.
      * @throws Exception if there is an error obtaining modules
      */
     public StaticModule[] getStaticModules() throws Exception {
-
-        String output = runModuleCommand();
-
-        ArrayList<StaticModule> modules = new ArrayList<StaticModule>();
-
-        BufferedReader reader = new BufferedReader(new StringReader(output));
-
-        String line;
-        while ((line = reader.readLine()) != null) {
-            if (line.matches(".*(?i:syntax error).*")) {
-                throw new Exception("There is an error when obtaining modules");
-            }
-
-            if (line.matches(Const.staticModulesSearchString)) {
-                modules.add(new StaticModule(line.replaceAll(Const.staticModulesReplaceString, "").trim()));
-            }
-        }
-        reader.close();
-
-        Utils.removeDuplicates(modules);
-
-        return modules.toArray(new StaticModule[modules.size()]);
+        return getModules().getStaticModules();
     }
 }
@@ -0,0 +1,30 @@
+package apache.conf.parser;
+
+/**
+ * <p>
+ * Interface used to receive the changes to the Apache configuration found by a {@link ConfigurationWatcher}.
+ * </p>
+ * <p>
+ * The methods are called on the thread of the watcher, one call at a time. A RuntimeException thrown by a listener is printed and does not stop the watcher or the other listeners.
+ * </p>
+ */
+public interface ConfigurationChangeListener {
+
+    /**
+     * Called after a change to the configuration files has been parsed.
+     * 
+     * @param snapshot
+     *            the snapshot of the changed configuration.
+     * @param changedFiles
+     *            the configuration files that were changed, added to or removed from the active configuration.
+     */
+    void configurationChanged(ConfigurationSnapshot snapshot, String changedFiles[]);
+
+    /**
+     * Called when the changed configuration could not be parsed. The watcher keeps watching and tries again on the next change.
+     * 
+     * @param exception
+     *            the error that stopped the parse.
+     */
+    void refreshFailed(Exception exception);
+}
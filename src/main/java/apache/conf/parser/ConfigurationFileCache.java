@@ -0,0 +1,257 @@
+package apache.conf.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * This class is used to cache the configuration lines of each configuration file between parses.
+ * </p>
+ * <p>
+ * A cached file is only read again when its last modified time or length changes. When a changed file has the same content hash as the cached file then the cached lines are kept and the file is not
+ * parsed again.
+ * </p>
+ * <p>
+ * Cached lines are processed without Defines. Lines that reference a Define with ${...} must be processed again by the caller.
+ * </p>
+ * <p>
+ * When more than one load thread is configured the files of a directory or wildcard include can be preloaded in parallel. Preloading only fills the cache, the caller still walks the files in order.
+ * </p>
+ * <p>
+ * A {@link ParserListener} can be set to observe every file read and cache hit.
+ * </p>
+ */
+class ConfigurationFileCache {
+
+    private final ConcurrentHashMap<String, FileSegment> segments = new ConcurrentHashMap<String, FileSegment>();
+
+    private int loadThreads = 1;
+    private ExecutorService loadExecutor;
+    private volatile ParserListener listener;
+    private final Set<String> preloaded = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Gets the configuration lines of a file. The file is only read if it has changed since the last call.
+     *
+     * @param confFile
+     *            the file to read.
+     * @return the cached or newly read lines of the file.
+     * @throws IOException
+     */
+    FileSegment getSegment(String confFile) throws IOException {
+        return getSegment(confFile, listener, false);
+    }
+
+    /**
+     * Gets the configuration lines of a file and reports the read or cache hit to the given listener instead of the listener of the cache.
+     *
+     * @param confFile
+     *            the file to read.
+     * @param listener
+     *            the listener to report to, or null to report nothing.
+     * @return the cached or newly read lines of the file.
+     * @throws IOException
+     */
+    FileSegment getSegment(String confFile, ParserListener listener) throws IOException {
+        return getSegment(confFile, listener, false);
+    }
+
+    private FileSegment getSegment(String confFile, ParserListener listener, boolean preloading) throws IOException {
+        long start = (listener == null ? 0 : System.nanoTime());
+
+        // take the fingerprint before reading so a change during the read is picked up by the next parse
+        FileFingerprint fingerprint = new FileFingerprint(confFile);
+
+        FileSegment segment = segments.get(confFile);
+        if (segment != null && segment.getFingerprint().isSameStat(fingerprint)) {
+            // a file that was just preloaded was read, it is not a cache hit of the walk
+            if (listener != null && !preloading && !preloaded.remove(confFile)) {
+                listener.fileCacheHit(confFile);
+            }
+            return segment;
+        }
+
+        ByteBuffer content = ConfigurationFileReader.read(confFile);
+        int bytes = content.remaining();
+        fingerprint = fingerprint.withContent(content);
+
+        if (segment != null && fingerprint.getContentHash().equals(segment.getFingerprint().getContentHash())) {
+            segment = new FileSegment(fingerprint, segment.getLineTable());
+        } else {
+            segment = new FileSegment(fingerprint, ConfigurationFileReader.readConfigurationLines(confFile, content));
+        }
+
+        segments.put(confFile, segment);
+
+        if (listener != null) {
+            if (preloading) {
+                preloaded.add(confFile);
+            }
+            listener.fileRead(confFile, bytes, System.nanoTime() - start);
+        }
+
+        return segment;
+    }
+
+    /**
+     * Reads the files that are not cached or have changed in parallel. Errors are ignored here, they are reported when the file is read with {@link #getSegment(String, ParserListener)}.
+     *
+     * @param confFiles
+     *            the files to read.
+     * @param listener
+     *            the listener to report the reads to, or null to report nothing.
+     */
+    void preload(List<String> confFiles, final ParserListener listener) {
+        ExecutorService executor = getLoadExecutor();
+        if (executor == null || confFiles.size() < 2) {
+            return;
+        }
+
+        ArrayList<Future<FileSegment>> futures = new ArrayList<Future<FileSegment>>(confFiles.size());
+        for (final String confFile : confFiles) {
+            futures.add(executor.submit(new Callable<FileSegment>() {
+                public FileSegment call() throws IOException {
+                    return getSegment(confFile, listener, true);
+                }
+            }));
+        }
+
+        for (Future<FileSegment> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // the file is read again in order by the caller which reports the error
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param loadThreads
+     *            the number of threads used to preload include files. 1 or less reads every file on the calling thread.
+     */
+    synchronized void setLoadThreads(int loadThreads) {
+        if (loadThreads == this.loadThreads) {
+            return;
+        }
+
+        if (loadExecutor != null) {
+            loadExecutor.shutdown();
+            loadExecutor = null;
+        }
+
+        this.loadThreads = loadThreads;
+    }
+
+    synchronized int getLoadThreads() {
+        return loadThreads;
+    }
+
+    /**
+     * @param listener
+     *            the listener to report file reads and cache hits to, or null to report nothing.
+     */
+    void setListener(ParserListener listener) {
+        this.listener = listener;
+    }
+
+    private synchronized ExecutorService getLoadExecutor() {
+        if (loadThreads < 2) {
+            return null;
+        }
+
+        if (loadExecutor == null) {
+            loadExecutor = Executors.newFixedThreadPool(loadThreads, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ApacheConfParser-include-loader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return loadExecutor;
+    }
+
+    /**
+     * Removes a cached file so the next call to {@link #getSegment(String)} reads it again.
+     *
+     * @param confFile
+     *            the file to remove.
+     */
+    void evict(String confFile) {
+        segments.remove(confFile);
+    }
+
+    /**
+     * Removes all cached files that are not in the list of paths.
+     *
+     * @param paths
+     *            the paths to keep.
+     */
+    void retain(Collection<String> paths) {
+        HashSet<String> keep = new HashSet<String>(paths);
+        preloaded.clear();
+
+        Iterator<String> iterator = segments.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!keep.contains(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Adds the lines of a file that were read earlier, such as from a stored snapshot. A file that is already cached keeps its cached lines.
+     *
+     * @param confFile
+     *            the file the lines were read from.
+     * @param segment
+     *            the lines of the file.
+     */
+    void putSegment(String confFile, FileSegment segment) {
+        segments.putIfAbsent(confFile, segment);
+    }
+
+    void clear() {
+        segments.clear();
+        preloaded.clear();
+    }
+
+    /**
+     * The cached lines of one configuration file.
+     */
+    static class FileSegment {
+        private final FileFingerprint fingerprint;
+        private final LineTable lineTable;
+
+        FileSegment(FileFingerprint fingerprint, LineTable lineTable) {
+            this.fingerprint = fingerprint;
+            this.lineTable = lineTable;
+        }
+
+        FileFingerprint getFingerprint() {
+            return fingerprint;
+        }
+
+        LineTable getLineTable() {
+            return lineTable;
+        }
+    }
+}
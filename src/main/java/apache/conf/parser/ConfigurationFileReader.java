@@ -0,0 +1,265 @@
+package apache.conf.parser;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import apache.conf.global.Const;
+import apache.conf.global.Utils;
+
+/**
+ * <p>
+ * Class used to read configuration files and split them into configuration lines.
+ * </p>
+ * <p>
+ * A file is read with a single channel read, files larger than {@link #mapThreshold} are memory mapped instead. Lines are split directly over the decoded content. A line that ends with a backslash
+ * is joined with the lines that follow it into one configuration line, the same way Apache reads multi-line directives. The processed text of each configuration line is built in the same scan that
+ * finds the line ends, {@link Parser#processConfigurationLine(String)} gives the same result for a single line.
+ * </p>
+ * <p>
+ * Line endings are single byte characters in UTF-8 so the bytes are split alongside the decoded content, which gives every configuration line the byte range that it was read from.
+ * </p>
+ */
+final class ConfigurationFileReader {
+
+    /**
+     * Files of at least this many bytes are memory mapped. Mapped files stay open until the buffer is garbage collected which prevents them from being replaced on Windows, so files are never mapped
+     * there.
+     */
+    static final long mapThreshold = 4 * 1024 * 1024;
+
+    private static final Charset charset = Charset.forName("UTF-8");
+
+    private ConfigurationFileReader() {
+    }
+
+    /**
+     * Reads the content of a file.
+     *
+     * @param file
+     *            the file to read.
+     * @return a buffer with the file content positioned at the start of the content.
+     * @throws IOException
+     */
+    static ByteBuffer read(String file) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+
+            long size = channel.size();
+            if (size >= mapThreshold && !Utils.isWindows()) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // keep reading until the buffer is full or the file ends early
+            }
+            buffer.flip();
+
+            return buffer;
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Splits the content of a configuration file into configuration lines.
+     *
+     * @param confFile
+     *            the file that the content was read from.
+     * @param content
+     *            the file content.
+     * @return a table with the configuration lines in the order that they appear in the file.
+     */
+    static LineTable readConfigurationLines(String confFile, ByteBuffer content) {
+        String text = charset.decode(content.duplicate()).toString();
+
+        int base = content.position();
+        int byteLength = content.remaining();
+
+        LineTable.Builder configurationLines = new LineTable.Builder(confFile);
+
+        // only multi-line configuration lines need a builder
+        StringBuilder concatLine = null;
+        LineProcessor processor = new LineProcessor();
+
+        int length = text.length();
+        int lineStart = 0, lineNumInFile = 0, currentConcatLineNum = -1;
+        int byteLineStart = 0, currentConcatOffset = -1;
+        while (lineStart < length) {
+            if (currentConcatLineNum == -1) {
+                processor.reset();
+            } else {
+                // the line break of a multi-line configuration line is whitespace
+                processor.appendWhitespace();
+            }
+
+            // the line is processed in the same scan that finds its end
+            int lineEnd = lineStart, lastNonBlank = -1, lastNonWhitespace = -1;
+            char c;
+            while (lineEnd < length && (c = text.charAt(lineEnd)) != '\n' && c != '\r') {
+                if (c > ' ') {
+                    lastNonBlank = lineEnd;
+                }
+                if (!LineLexer.isWhitespace(c)) {
+                    lastNonWhitespace = lineEnd;
+                }
+                processor.append(c);
+                lineEnd++;
+            }
+
+            int nextLineStart = lineEnd + 1;
+            if (lineEnd < length && text.charAt(lineEnd) == '\r' && nextLineStart < length && text.charAt(nextLineStart) == '\n') {
+                nextLineStart++;
+            }
+
+            // the bytes have the same line endings as the decoded content
+            int byteLineEnd = byteLineStart;
+            while (byteLineEnd < byteLength && content.get(base + byteLineEnd) != '\n' && content.get(base + byteLineEnd) != '\r') {
+                byteLineEnd++;
+            }
+            int nextByteLineStart = Math.min(byteLineEnd + (nextLineStart - lineEnd), byteLength);
+
+            lineNumInFile++;
+            boolean firstLine = (currentConcatLineNum == -1);
+            currentConcatLineNum = (currentConcatLineNum == -1 ? lineNumInFile : currentConcatLineNum);
+            currentConcatOffset = (currentConcatOffset == -1 ? byteLineStart : currentConcatOffset);
+
+            // a line that ends with a backslash followed only by whitespace is continued on the next line
+            if (lastNonBlank >= 0 && text.charAt(lastNonBlank) == '\\') {
+                if (concatLine == null) {
+                    concatLine = new StringBuilder();
+                }
+                concatLine.append(text, lineStart, lineEnd).append(Const.newLine);
+
+                // the backslash is removed when whitespace is on both sides of it, a line break that already separated a removed backslash does not count
+                boolean whitespaceBefore = (lastNonBlank > lineStart ? LineLexer.isWhitespace(text.charAt(lastNonBlank - 1)) : !firstLine && !processor.isBackslashRemoved());
+                processor.setBackslashRemoved(nextLineStart < length && lastNonWhitespace == lastNonBlank && whitespaceBefore);
+            } else {
+                String line;
+                if (concatLine == null) {
+                    line = text.substring(lineStart, lineEnd);
+                } else {
+                    line = concatLine.append(text, lineStart, lineEnd).toString();
+                    concatLine = null;
+                }
+
+                configurationLines.add(line, LineLexer.lex(processor.toString(line)), currentConcatLineNum, lineNumInFile, currentConcatOffset, nextByteLineStart);
+                currentConcatLineNum = -1;
+                currentConcatOffset = -1;
+            }
+
+            lineStart = nextLineStart;
+            byteLineStart = nextByteLineStart;
+        }
+
+        // a file that ends with a backslash keeps its last line
+        if (concatLine != null) {
+            String line = concatLine.substring(0, concatLine.length() - Const.newLine.length());
+            configurationLines.add(line, LineLexer.lex(processor.toString(line)), currentConcatLineNum, lineNumInFile, currentConcatOffset, byteLength);
+        }
+
+        return configurationLines.build();
+    }
+
+    /**
+     * @param content
+     *            the file content.
+     * @return the first line ending of the content or {@link Const#newLine} if the content has a single line.
+     */
+    static String getLineEnding(ByteBuffer content) {
+        for (int i = content.position(); i < content.limit(); i++) {
+            if (content.get(i) == '\n') {
+                return "\n";
+            }
+            if (content.get(i) == '\r') {
+                return (i + 1 < content.limit() && content.get(i + 1) == '\n') ? "\r\n" : "\r";
+            }
+        }
+
+        return Const.newLine;
+    }
+
+    /**
+     * Builds the processed text of a configuration line while its characters are scanned. The line is trimmed, every run of whitespace is replaced with a single space and the backslashes of a
+     * multi-line line are removed. One builder is reused for every line of a file and a line that needs no change is used as it is.
+     */
+    private static final class LineProcessor {
+
+        private final StringBuilder processed = new StringBuilder();
+        private boolean pendingSpace;
+        private boolean changed;
+        private boolean backslashRemoved;
+
+        void reset() {
+            processed.setLength(0);
+            pendingSpace = false;
+            changed = false;
+            backslashRemoved = false;
+        }
+
+        void append(char c) {
+            if (LineLexer.isWhitespace(c)) {
+                if (processed.length() == 0 || pendingSpace || c != ' ') {
+                    changed = true;
+                }
+                pendingSpace = (processed.length() > 0);
+            } else if (c <= ' ' && processed.length() == 0) {
+                // trimmed the same way as String.trim
+                changed = true;
+            } else {
+                if (pendingSpace) {
+                    processed.append(' ');
+                    pendingSpace = false;
+                }
+                processed.append(c);
+            }
+        }
+
+        void appendWhitespace() {
+            changed = true;
+            pendingSpace = (processed.length() > 0);
+        }
+
+        /**
+         * @param removed
+         *            true to remove the backslash at the end of the current line, which is then treated as whitespace.
+         */
+        void setBackslashRemoved(boolean removed) {
+            backslashRemoved = removed;
+            if (removed) {
+                // the backslash is the last character, only whitespace follows it
+                processed.setLength(processed.length() - 1);
+                if (processed.length() > 0 && processed.charAt(processed.length() - 1) == ' ') {
+                    processed.setLength(processed.length() - 1);
+                }
+                pendingSpace = (processed.length() > 0);
+                changed = true;
+            }
+        }
+
+        boolean isBackslashRemoved() {
+            return backslashRemoved;
+        }
+
+        /**
+         * @param line
+         *            the raw configuration line that was scanned.
+         * @return the processed line.
+         */
+        String toString(String line) {
+            if (pendingSpace) {
+                changed = true;
+            }
+            while (processed.length() > 0 && processed.charAt(processed.length() - 1) <= ' ') {
+                processed.setLength(processed.length() - 1);
+                changed = true;
+            }
+
+            return (changed ? processed.toString() : line);
+        }
+    }
+}
@@ -15,17 +15,29 @@ package apache.conf.parser;
  * isComment - indicates whether the configuration line is a comment<br/>
  * lineOfStart - The line number inside of the file where the configuration line starts<br/>
  * lineOfEnd - The line number insode of the file where the configuration line ends.<br/>
+ * <br/>
+ * A configuration line that was read from a file also records the byte range that it was read from, including its line ending. Edits copy the byte ranges of unchanged lines instead of writing
+ * the lines again.<br/>
+ * <br/>
+ * Lines read by the parser are views of a row in the columnar storage of their file, so they do not hold their own values. A view copies the values of its row when one of its setters is called, the
+ * storage itself is never modified.
  * 
  */
 
 public class ConfigurationLine {
 
+    private LineTable table;
+    private int row;
+
     private String line;
     private String processedLine;
     private String file;
     private int lineOfStart;
     private int lineOfEnd;
     private boolean isComment;
+    private LexedLine lexedLine;
+    private int startOffset = -1;
+    private int endOffset = -1;
 
     public ConfigurationLine(String line, String processedLine, String file, boolean isComment, int lineOfStart, int lineOfEnd) {
         this.line = line;
@@ -36,11 +48,90 @@ public class ConfigurationLine {
         this.lineOfEnd = lineOfEnd;
     }
 
+    ConfigurationLine(String line, LexedLine lexedLine, String file, int lineOfStart, int lineOfEnd) {
+        this(line, lexedLine.getLine(), file, lexedLine.isComment(), lineOfStart, lineOfEnd);
+        this.lexedLine = lexedLine;
+    }
+
+    /**
+     * Creates a view of a row of a line table.
+     */
+    ConfigurationLine(LineTable table, int row) {
+        this.table = table;
+        this.row = row;
+    }
+
+    /**
+     * Creates a view of a row of a line table with a different processed line, used for lines with Defines.
+     */
+    ConfigurationLine(LineTable table, int row, LexedLine lexedLine) {
+        this(table, row);
+        this.processedLine = lexedLine.getLine();
+        this.isComment = lexedLine.isComment();
+        this.lexedLine = lexedLine;
+    }
+
+    /**
+     * @return the line table that this line is a view of, or null if the line holds its own values.
+     */
+    LineTable getTable() {
+        return table;
+    }
+
+    int getRow() {
+        return row;
+    }
+
+    /**
+     * @return true if this is a view with a processed line that is not the processed line of its row.
+     */
+    boolean isProcessedLineReplaced() {
+        return table != null && processedLine != null;
+    }
+
+    /**
+     * @return a line with the same values. Changes to either line do not change the other.
+     */
+    ConfigurationLine copy() {
+        if (table != null) {
+            return (processedLine == null ? new ConfigurationLine(table, row) : new ConfigurationLine(table, row, lexedLine));
+        }
+
+        ConfigurationLine copy = new ConfigurationLine(line, processedLine, file, isComment, lineOfStart, lineOfEnd);
+        copy.lexedLine = lexedLine;
+        copy.startOffset = startOffset;
+        copy.endOffset = endOffset;
+
+        return copy;
+    }
+
+    /**
+     * Copies the values of the row so the line can be modified.
+     */
+    private void detach() {
+        if (table == null) {
+            return;
+        }
+
+        line = table.getLine(row);
+        if (processedLine == null) {
+            processedLine = table.getProcessedLine(row);
+            isComment = table.isComment(row);
+        }
+        file = table.getFile();
+        lineOfStart = table.getLineOfStart(row);
+        lineOfEnd = table.getLineOfEnd(row);
+        startOffset = table.getStartOffset(row);
+        endOffset = table.getEndOffset(row);
+
+        table = null;
+    }
+
     /**
      * @return the unmodified line from the apache configuration
      */
     public String getLine() {
-        return line;
+        return (table != null ? table.getLine(row) : line);
     }
 
     /**
@@ -48,14 +139,18 @@ public class ConfigurationLine {
      *            the line to set
      */
     public void setLine(String line) {
+        detach();
         this.line = line;
+        this.startOffset = -1;
+        this.endOffset = -1;
     }
 
     /**
      * @return the processedLine from the configuration. 
      */
     public String getProcessedLine() {
-        return processedLine;
+        // a view shares the processed line of its lexed line
+        return (table != null && processedLine == null ? getLexedLine().getLine() : processedLine);
     }
 
     /**
@@ -63,14 +158,16 @@ public class ConfigurationLine {
      *            the processedLine to set
      */
     public void setProcessedLine(String processedLine) {
+        detach();
         this.processedLine = processedLine;
+        this.lexedLine = null;
     }
 
     /**
      * @return the file that contains the configuration line.
      */
     public String getFile() {
-        return file;
+        return (table != null ? table.getFile() : file);
     }
 
     /**
@@ -78,6 +175,7 @@ public class ConfigurationLine {
      *            the file to set
      */
     public void setFile(String file) {
+        detach();
         this.file = file;
     }
 
@@ -85,13 +183,14 @@ public class ConfigurationLine {
      * @return the isComment
      */
     public boolean isComment() {
-        return isComment;
+        return (table != null && processedLine == null ? table.isComment(row) : isComment);
     }
 
     /**
      * @param isComment the isComment to set
      */
     public void setComment(boolean isComment) {
+        detach();
         this.isComment = isComment;
     }
 
@@ -100,7 +199,7 @@ public class ConfigurationLine {
      * @return
      */
     public int getLineOfStart() {
-        return lineOfStart;
+        return (table != null ? table.getLineOfStart(row) : lineOfStart);
     }
 
     /**
@@ -108,6 +207,7 @@ public class ConfigurationLine {
      * @param lineOfStart
      */
     public void setLineOfStart(int lineOfStart) {
+        detach();
         this.lineOfStart = lineOfStart;
     }
 
@@ -116,7 +216,7 @@ public class ConfigurationLine {
      * @return lineOfEnd
      */
     public int getLineOfEnd() {
-        return lineOfEnd;
+        return (table != null ? table.getLineOfEnd(row) : lineOfEnd);
     }
 
     /**
@@ -124,11 +224,39 @@ public class ConfigurationLine {
      * @param lineOfEnd
      */
     public void setLineOfEnd(int lineOfEnd) {
+        detach();
         this.lineOfEnd = lineOfEnd;
     }
 
+    /**
+     * The processed line is lexed once and the result is reused by all of the parsers.
+     * 
+     * @return the classification of the processed line.
+     */
+    public LexedLine getLexedLine() {
+        if (lexedLine == null) {
+            lexedLine = (table != null ? table.getLexedLine(row) : LineLexer.lex(processedLine));
+        }
+
+        return lexedLine;
+    }
+
+    /**
+     * @return the offset of the first byte of the line in its file or -1 if the line was not read from a file.
+     */
+    int getStartOffset() {
+        return (table != null ? table.getStartOffset(row) : startOffset);
+    }
+
+    /**
+     * @return the offset after the last byte of the line ending in its file or -1 if the line was not read from a file.
+     */
+    int getEndOffset() {
+        return (table != null ? table.getEndOffset(row) : endOffset);
+    }
+
     public boolean isMultiLine() {
-        return (lineOfStart != lineOfEnd);
+        return (getLineOfStart() != getLineOfEnd());
     }
     
 }
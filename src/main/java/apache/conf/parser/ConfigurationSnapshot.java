@@ -0,0 +1,696 @@
+package apache.conf.parser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import apache.conf.directives.Define;
+import apache.conf.modules.SharedModule;
+
+/**
+ * <p>
+ * This class is used to model a parsed Apache configuration. A snapshot is built with one parse of the configuration and answers the parser queries in memory.
+ * </p>
+ * <p>
+ * A snapshot holds the following:<br/>
+ * configuration lines - All configuration lines in the order that they appear in the Apache configuration.<br/>
+ * inclusion masks - Flags indicating which lines are active, both with and without lines inside of VirtualHosts.<br/>
+ * enclosure tree - The nesting of the active enclosures, both with and without VirtualHosts.<br/>
+ * directive index - The active directives by name, both with and without VirtualHosts.<br/>
+ * defines - The Defines in effect at the end of the configuration.<br/>
+ * fingerprints - The state of every file and include directory that was read, used to detect that the snapshot is stale.<br/>
+ * </p>
+ * <p>
+ * A snapshot is never modified after it is built. The configuration lines are shared between queries and should not be modified by callers.
+ * </p>
+ * <p>
+ * The lines are not held as objects. Each line is recorded as the line table of its file and its row in the table, the tables are shared with the file cache of the parser. Only lines whose
+ * processed line was changed by a Define are held as objects. The inclusion masks are bit sets.
+ * </p>
+ */
+public class ConfigurationSnapshot {
+
+    private final String rootConfFile;
+    private final LineTable tables[];
+    private final String canonicalTableFiles[];
+    private final int tableIds[];
+    private final int rows[];
+    private final HashMap<Integer, ConfigurationLine> replacedLines;
+    private final BitSet replaced;
+    private final BitSet vHostIncludeMask;
+    private final BitSet includeMask;
+    private final List<EnclosureNode> vHostEnclosures;
+    private final List<EnclosureNode> enclosures;
+    private final DirectiveIndex vHostDirectiveIndex;
+    private final DirectiveIndex directiveIndex;
+    private final Define defines[];
+    private final SharedModule loadModuleSharedModules[];
+    private final FileFingerprint fingerprints[];
+
+    ConfigurationSnapshot(String rootConfFile, ConfigurationLine configurationLines[], ParsableLine vHostParsableLines[], ParsableLine parsableLines[], Define defines[],
+            SharedModule loadModuleSharedModules[], FileFingerprint fingerprints[]) {
+        this.rootConfFile = rootConfFile;
+
+        // record each line as a row of the table of its file
+        IdentityHashMap<LineTable, Integer> tableIdMap = new IdentityHashMap<LineTable, Integer>();
+        ArrayList<LineTable> tableList = new ArrayList<LineTable>();
+        this.tableIds = new int[configurationLines.length];
+        this.rows = new int[configurationLines.length];
+        this.replacedLines = new HashMap<Integer, ConfigurationLine>();
+        this.replaced = new BitSet(configurationLines.length);
+
+        for (int i = 0; i < configurationLines.length; i++) {
+            LineTable table = configurationLines[i].getTable();
+            if (table == null || configurationLines[i].isProcessedLineReplaced()) {
+                replacedLines.put(i, configurationLines[i]);
+                replaced.set(i);
+            }
+
+            if (table == null) {
+                tableIds[i] = -1;
+                continue;
+            }
+
+            Integer tableId = tableIdMap.get(table);
+            if (tableId == null) {
+                tableId = tableList.size();
+                tableIdMap.put(table, tableId);
+                tableList.add(table);
+            }
+
+            tableIds[i] = tableId;
+            rows[i] = configurationLines[i].getRow();
+        }
+
+        this.tables = tableList.toArray(new LineTable[tableList.size()]);
+        this.canonicalTableFiles = getCanonicalFiles(tables);
+
+        // the lexed lines are only needed while the enclosure trees and directive indexes are built
+        LexedLine lexedLines[] = new LexedLine[configurationLines.length];
+        for (int i = 0; i < configurationLines.length; i++) {
+            lexedLines[i] = configurationLines[i].getLexedLine();
+        }
+
+        this.vHostIncludeMask = getIncludeMask(vHostParsableLines);
+        this.includeMask = getIncludeMask(parsableLines);
+        this.vHostEnclosures = getEnclosureTree(lexedLines, vHostIncludeMask);
+        this.enclosures = getEnclosureTree(lexedLines, includeMask);
+        this.vHostDirectiveIndex = new DirectiveIndex(lexedLines, vHostIncludeMask);
+        this.directiveIndex = new DirectiveIndex(lexedLines, includeMask);
+        this.defines = defines;
+        this.loadModuleSharedModules = loadModuleSharedModules;
+        this.fingerprints = fingerprints;
+    }
+
+    private ConfigurationSnapshot(ConfigurationSnapshotStore.Input input) {
+        this.rootConfFile = input.readString();
+
+        this.tables = new LineTable[input.readInt()];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = LineTable.read(input);
+        }
+        this.canonicalTableFiles = getCanonicalFiles(tables);
+        this.tableIds = input.readInts();
+        this.rows = input.readInts();
+
+        this.replacedLines = new HashMap<Integer, ConfigurationLine>();
+        this.replaced = new BitSet(rows.length);
+        int replacedCount = input.readInt();
+        for (int i = 0; i < replacedCount; i++) {
+            int index = input.readInt();
+            if (tableIds[index] == -1) {
+                replacedLines.put(index, new ConfigurationLine(input.readString(), input.readString(), input.readString(), input.readBoolean(), input.readInt(), input.readInt()));
+            } else {
+                replacedLines.put(index, new ConfigurationLine(tables[tableIds[index]], rows[index], LineLexer.lex(input.readString())));
+            }
+            replaced.set(index);
+        }
+
+        this.vHostIncludeMask = BitSet.valueOf(input.readLongs());
+        this.includeMask = BitSet.valueOf(input.readLongs());
+        this.vHostEnclosures = readEnclosureTree(input);
+        this.enclosures = readEnclosureTree(input);
+        this.vHostDirectiveIndex = DirectiveIndex.read(input);
+        this.directiveIndex = DirectiveIndex.read(input);
+
+        this.defines = new Define[input.readInt()];
+        for (int i = 0; i < defines.length; i++) {
+            defines[i] = new Define(input.readString(), input.readString());
+        }
+
+        this.loadModuleSharedModules = new SharedModule[input.readInt()];
+        for (int i = 0; i < loadModuleSharedModules.length; i++) {
+            loadModuleSharedModules[i] = new SharedModule(input.readString());
+        }
+
+        this.fingerprints = new FileFingerprint[input.readInt()];
+        for (int i = 0; i < fingerprints.length; i++) {
+            fingerprints[i] = new FileFingerprint(input.readString(), input.readLong(), input.readLong(), input.readString());
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write(ConfigurationSnapshotStore.Output)}.
+     */
+    static ConfigurationSnapshot read(ConfigurationSnapshotStore.Input input) {
+        return new ConfigurationSnapshot(input);
+    }
+
+    /**
+     * Writes the lines, inclusion masks, enclosure trees, directive indexes, Defines, modules and fingerprints of the snapshot.
+     */
+    void write(ConfigurationSnapshotStore.Output output) throws IOException {
+        output.writeString(rootConfFile);
+
+        output.writeInt(tables.length);
+        for (LineTable table : tables) {
+            table.write(output);
+        }
+        output.writeInts(tableIds);
+        output.writeInts(rows);
+
+        output.writeInt(replacedLines.size());
+        for (Map.Entry<Integer, ConfigurationLine> entry : replacedLines.entrySet()) {
+            int index = entry.getKey();
+            ConfigurationLine configurationLine = entry.getValue();
+
+            output.writeInt(index);
+            if (tableIds[index] == -1) {
+                output.writeString(configurationLine.getLine());
+                output.writeString(configurationLine.getProcessedLine());
+                output.writeString(configurationLine.getFile());
+                output.writeBoolean(configurationLine.isComment());
+                output.writeInt(configurationLine.getLineOfStart());
+                output.writeInt(configurationLine.getLineOfEnd());
+            } else {
+                output.writeString(configurationLine.getProcessedLine());
+            }
+        }
+
+        output.writeLongs(vHostIncludeMask.toLongArray());
+        output.writeLongs(includeMask.toLongArray());
+        writeEnclosureTree(output, vHostEnclosures);
+        writeEnclosureTree(output, enclosures);
+        vHostDirectiveIndex.write(output);
+        directiveIndex.write(output);
+
+        output.writeInt(defines.length);
+        for (Define define : defines) {
+            output.writeString(define.getName());
+            output.writeString(define.getValue());
+        }
+
+        output.writeInt(loadModuleSharedModules.length);
+        for (SharedModule module : loadModuleSharedModules) {
+            output.writeString(module.getName());
+        }
+
+        output.writeInt(fingerprints.length);
+        for (FileFingerprint fingerprint : fingerprints) {
+            output.writeString(fingerprint.getPath());
+            output.writeLong(fingerprint.getLastModified());
+            output.writeLong(fingerprint.getLength());
+            output.writeString(fingerprint.getContentHash());
+        }
+    }
+
+    private static void writeEnclosureTree(ConfigurationSnapshotStore.Output output, List<EnclosureNode> nodes) throws IOException {
+        output.writeInt(nodes.size());
+        for (EnclosureNode node : nodes) {
+            output.writeInt(node.open);
+            output.writeInt(node.close);
+            writeEnclosureTree(output, node.children);
+        }
+    }
+
+    private List<EnclosureNode> readEnclosureTree(ConfigurationSnapshotStore.Input input) {
+        int size = input.readInt();
+
+        ArrayList<EnclosureNode> nodes = new ArrayList<EnclosureNode>(size);
+        for (int i = 0; i < size; i++) {
+            int open = input.readInt();
+
+            EnclosureNode node = new EnclosureNode(getConfigurationLine(open).getLexedLine(), open);
+            node.close = input.readInt();
+            node.children.addAll(readEnclosureTree(input));
+            nodes.add(node);
+        }
+
+        return nodes;
+    }
+
+    private static String[] getCanonicalFiles(LineTable tables[]) {
+        String canonicalFiles[] = new String[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            canonicalFiles[i] = new File(tables[i].getFile()).getAbsolutePath();
+        }
+
+        return canonicalFiles;
+    }
+
+    private static BitSet getIncludeMask(ParsableLine parsableLines[]) {
+        BitSet mask = new BitSet(parsableLines.length);
+        for (int i = 0; i < parsableLines.length; i++) {
+            if (parsableLines[i].isInclude()) {
+                mask.set(i);
+            }
+        }
+
+        return mask;
+    }
+
+    private static List<EnclosureNode> getEnclosureTree(LexedLine lexedLines[], BitSet mask) {
+
+        ArrayList<EnclosureNode> roots = new ArrayList<EnclosureNode>();
+        Stack<EnclosureNode> enclosureStack = new Stack<EnclosureNode>();
+
+        LexedLine lexedLine;
+        for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) {
+            lexedLine = lexedLines[i];
+            if (lexedLine.isEnclosureOpen()) {
+                EnclosureNode node = new EnclosureNode(lexedLine, i);
+                if (enclosureStack.isEmpty()) {
+                    roots.add(node);
+                } else {
+                    enclosureStack.peek().children.add(node);
+                }
+                enclosureStack.push(node);
+            } else if (lexedLine.isEnclosureClose() && !enclosureStack.isEmpty()) {
+                enclosureStack.pop().close = i;
+            }
+        }
+
+        return roots;
+    }
+
+    /**
+     * @return the line tables of the files of the snapshot.
+     */
+    LineTable[] getLineTables() {
+        return tables;
+    }
+
+    /**
+     * @return the fingerprints of the files and include directories that were read to build the snapshot.
+     */
+    FileFingerprint[] getFingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * @return the Shared Modules of the LoadModule directives found while the snapshot was built, when LoadModule directives are treated as loaded modules.
+     */
+    SharedModule[] getLoadModuleSharedModules() {
+        return loadModuleSharedModules;
+    }
+
+    /**
+     * @return the number of configuration lines.
+     */
+    int size() {
+        return rows.length;
+    }
+
+    /**
+     * @param index
+     *            the position of the line in the configuration.
+     * @return a view of the configuration line.
+     */
+    ConfigurationLine getConfigurationLine(int index) {
+        // the caller may modify the line, the snapshot keeps its own copy
+        if (replaced.get(index)) {
+            return replacedLines.get(index).copy();
+        }
+
+        return tables[tableIds[index]].get(rows[index]);
+    }
+
+    private String getFile(int index) {
+        return (tableIds[index] == -1 ? replacedLines.get(index).getFile() : tables[tableIds[index]].getFile());
+    }
+
+    private String getCanonicalFile(int index) {
+        return (tableIds[index] == -1 ? new File(replacedLines.get(index).getFile()).getAbsolutePath() : canonicalTableFiles[tableIds[index]]);
+    }
+
+    private int getLineOfStart(int index) {
+        return (tableIds[index] == -1 ? replacedLines.get(index).getLineOfStart() : tables[tableIds[index]].getLineOfStart(rows[index]));
+    }
+
+    /**
+     * @return the Apache root configuration file that was parsed.
+     */
+    public String getRootConfFile() {
+        return rootConfFile;
+    }
+
+    /**
+     * @return the Defines in effect at the end of the configuration, in the order that they were defined.
+     */
+    public Define[] getDefines() {
+        return defines.clone();
+    }
+
+    /**
+     * @return all configuration lines in the order that they appear in the Apache configuration.
+     */
+    public ConfigurationLine[] getConfigurationLines() {
+        ConfigurationLine configurationLines[] = new ConfigurationLine[size()];
+        for (int i = 0; i < configurationLines.length; i++) {
+            configurationLines[i] = getConfigurationLine(i);
+        }
+
+        return configurationLines;
+    }
+
+    /**
+     * Gets a list of all parsable lines in the configuration. The lines will be included in the order that they appear in the Apache configuration.
+     *
+     * @param includeVHosts
+     *            boolean indicating whether to include parsable lines in Virtual Hosts
+     *
+     * @return a list of parsable lines
+     */
+    public ParsableLine[] getConfigurationParsableLines(boolean includeVHosts) {
+        BitSet mask = getIncludeMask(includeVHosts);
+
+        ParsableLine lines[] = new ParsableLine[size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = new ParsableLine(getConfigurationLine(i), mask.get(i));
+        }
+
+        return lines;
+    }
+
+    /**
+     * Gets the configuration lines that belong to a file. If the file is included more than once then the lines of the first inclusion are returned.
+     *
+     * @param file
+     *            the file to get lines for.
+     * @return the configuration lines of the file in the order that they appear, or null if the file is not part of the snapshot.
+     */
+    public ConfigurationLine[] getFileConfigurationLines(String file) {
+
+        String canonicalFile = new File(file).getAbsolutePath();
+
+        ArrayList<ConfigurationLine> fileConfigurationLines = new ArrayList<ConfigurationLine>();
+
+        int lastLine = 0;
+        for (int i = 0; i < size(); i++) {
+            if (canonicalFile.equals(getCanonicalFile(i))) {
+                // line numbers start again when the file is included a second time
+                if (getLineOfStart(i) <= lastLine) {
+                    break;
+                }
+
+                fileConfigurationLines.add(getConfigurationLine(i));
+                lastLine = getLineOfStart(i);
+            }
+        }
+
+        if (fileConfigurationLines.isEmpty()) {
+            return null;
+        }
+
+        return fileConfigurationLines.toArray(new ConfigurationLine[fileConfigurationLines.size()]);
+    }
+
+    /**
+     * Gets all active instances of the directive specified by directiveType.
+     *
+     * @param directiveType
+     *            The directive name. This is not case sensitive.
+     * @param includeVHosts
+     *            flag to indicate whether to include directives inside VirtualHosts
+     * @return an array with all instances of the directive.
+     */
+    public Directive[] getDirective(String directiveType, boolean includeVHosts) {
+        int lines[] = getDirectiveIndex(includeVHosts).get(directiveType);
+
+        Directive directives[] = new Directive[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            directives[i] = DirectiveParser.createDirective(directiveType, getConfigurationLine(lines[i]));
+        }
+
+        return directives;
+    }
+
+    /**
+     * Gets all active instances of several directives in one lookup.
+     *
+     * @param directiveTypes
+     *            The directive names. These are not case sensitive.
+     * @param includeVHosts
+     *            flag to indicate whether to include directives inside VirtualHosts
+     * @return an array with all instances of the directives in the order that they appear in the Apache configuration.
+     */
+    public Directive[] getDirectives(Set<String> directiveTypes, boolean includeVHosts) {
+        DirectiveIndex index = getDirectiveIndex(includeVHosts);
+
+        // map each line to the directive type that was asked for
+        TreeMap<Integer, String> matches = new TreeMap<Integer, String>();
+        for (String directiveType : directiveTypes) {
+            for (int line : index.get(directiveType)) {
+                if (!matches.containsKey(line)) {
+                    matches.put(line, directiveType);
+                }
+            }
+        }
+
+        ArrayList<Directive> directives = new ArrayList<Directive>(matches.size());
+        for (Map.Entry<Integer, String> match : matches.entrySet()) {
+            directives.add(DirectiveParser.createDirective(match.getValue(), getConfigurationLine(match.getKey())));
+        }
+
+        return directives.toArray(new Directive[directives.size()]);
+    }
+
+    /**
+     * Gets the values of all active instances of the directive specified by directiveType.
+     *
+     * @param directiveType
+     *            The directive name. This is not case sensitive.
+     * @param includeVHosts
+     *            flag to indicate whether to include directives inside VirtualHosts
+     * @return gets all of the values of a directive in an array. If one instance of a directive has multiple values then they will be separated by spaces.
+     */
+    public String[] getDirectiveValue(String directiveType, boolean includeVHosts) {
+        return DirectiveParser.getDirectiveValues(getDirective(directiveType, includeVHosts));
+    }
+
+    /**
+     * Gets the first file with an active directive and pattern combination.
+     *
+     * @param directiveType
+     *            The directive name. This is not case sensitive.
+     * @param matchesPattern
+     *            The pattern to match against the directive value.
+     * @param includeVHosts
+     *            flag to indicate whether to include directives in VirtualHosts
+     * @return the first file that matches the directive type and pattern combination or null if no file is found.
+     */
+    public String getDirectiveFile(String directiveType, Pattern matchesPattern, boolean includeVHosts) {
+        for (int line : getDirectiveIndex(includeVHosts).get(directiveType)) {
+            if (matchesPattern.matcher(getConfigurationLine(line).getProcessedLine()).find()) {
+                return getFile(line);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets all active enclosures specified by enclosureType. Enclosures nested inside an enclosure of the same type are returned as part of the outer enclosure.
+     *
+     * @param enclosureType
+     *            The enclosure name. This is not case sensitive.
+     * @param includeVHosts
+     *            flag to indicate whether to include enclosures in VirtualHosts
+     * @return An array with all matching enclosures.
+     */
+    public Enclosure[] getEnclosure(String enclosureType, boolean includeVHosts) {
+        ArrayList<Enclosure> matches = new ArrayList<Enclosure>();
+
+        getEnclosure(enclosureType, (includeVHosts ? vHostEnclosures : enclosures), getIncludeMask(includeVHosts), matches);
+
+        return matches.toArray(new Enclosure[matches.size()]);
+    }
+
+    private void getEnclosure(String enclosureType, List<EnclosureNode> nodes, BitSet mask, ArrayList<Enclosure> matches) {
+        for (EnclosureNode node : nodes) {
+            if (node.lexedLine.isEnclosureOpen(enclosureType)) {
+                if (node.close != -1) {
+                    matches.add(createEnclosure(node, mask));
+                }
+            } else {
+                getEnclosure(enclosureType, node.children, mask, matches);
+            }
+        }
+    }
+
+    private Enclosure createEnclosure(EnclosureNode node, BitSet mask) {
+        ArrayList<ParsableLine> parsableLines = new ArrayList<ParsableLine>();
+
+        ConfigurationLine configurationLine;
+        LexedLine lexedLine;
+        for (int i = mask.nextSetBit(node.open); i >= 0 && i <= node.close; i = mask.nextSetBit(i + 1)) {
+            configurationLine = getConfigurationLine(i);
+            lexedLine = configurationLine.getLexedLine();
+            if (!lexedLine.isComment() && !lexedLine.isBlank()) {
+                parsableLines.add(new ParsableLine(configurationLine, true));
+            }
+        }
+
+        return EnclosureParser.createEnclosure(parsableLines.toArray(new ParsableLine[parsableLines.size()]));
+    }
+
+    /**
+     * Gets the active file list as it appears in the configuration. If a configuration file is included more than once then it will be added multiple times to the list.
+     *
+     * @return an array with all included configuration files. The list of files is in the order that they appear in the apache configuration.
+     */
+    public String[] getActiveConfFileListWithDuplicates() {
+        ArrayList<String> files = new ArrayList<String>();
+
+        for (int i = vHostIncludeMask.nextSetBit(0); i >= 0; i = vHostIncludeMask.nextSetBit(i + 1)) {
+            if (getLineOfStart(i) == 1) {
+                files.add(getFile(i));
+            }
+        }
+
+        return files.toArray(new String[files.size()]);
+    }
+
+    /**
+     * Gets a unique list of configuration files currently included in the apache configuration.
+     *
+     * @return an array with all included configuration files. The list of files is in the order that they appear in the apache configuration.
+     */
+    public String[] getActiveConfFileList() {
+        LinkedHashSet<String> files = new LinkedHashSet<String>(Arrays.asList(getActiveConfFileListWithDuplicates()));
+
+        return files.toArray(new String[files.size()]);
+    }
+
+    /**
+     * Gets the active configuration files that contain an enclosure of the enclosure type with a line that matches the pattern. Files without a match do not need to be read to change the
+     * enclosure.
+     *
+     * @param enclosureType
+     *            The enclosure name. This is not case sensitive.
+     * @param matchesValuePattern
+     *            The pattern to match the enclosure line against
+     * @return the matching files in the order that they appear in the apache configuration.
+     */
+    String[] getEnclosureFiles(String enclosureType, Pattern matchesValuePattern) {
+        LinkedHashSet<String> activeFiles = new LinkedHashSet<String>(Arrays.asList(getActiveConfFileListWithDuplicates()));
+
+        LinkedHashSet<String> files = new LinkedHashSet<String>();
+        for (int i = 0; i < size(); i++) {
+            if (!activeFiles.contains(getFile(i))) {
+                continue;
+            }
+
+            ConfigurationLine configurationLine = getConfigurationLine(i);
+            if (configurationLine.getLexedLine().isEnclosureOpen(enclosureType) && matchesValuePattern.matcher(configurationLine.getProcessedLine()).find()) {
+                files.add(configurationLine.getFile());
+            }
+        }
+
+        return files.toArray(new String[files.size()]);
+    }
+
+    /**
+     * Checks the files and include directories that were read to build the snapshot.
+     *
+     * @return true if any of them have changed since the snapshot was built.
+     */
+    public boolean isStale() {
+        for (FileFingerprint fingerprint : fingerprints) {
+            if (!fingerprint.isCurrent()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks the files and include directories that were read to build the snapshot.
+     *
+     * @param verifyContent
+     *            true to also compare a hash of the content of each file. This reads every file.
+     * @return true if any of them have changed since the snapshot was built.
+     * @throws IOException
+     */
+    public boolean isStale(boolean verifyContent) throws IOException {
+        for (FileFingerprint fingerprint : fingerprints) {
+            if (!fingerprint.isCurrent(verifyContent)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param directiveType
+     *            The directive name. This is not case sensitive.
+     * @param includeVHosts
+     *            flag to indicate whether to include directives inside VirtualHosts
+     * @return the positions in the configuration of the active instances of the directive. The array must not be modified.
+     */
+    int[] getDirectivePositions(String directiveType, boolean includeVHosts) {
+        return getDirectiveIndex(includeVHosts).get(directiveType);
+    }
+
+    /**
+     * @param table
+     *            the line table of a file.
+     * @return the position in the configuration of the first inclusion of each row of the table, -1 for the rows that are not part of the snapshot.
+     */
+    int[] getRowPositions(LineTable table) {
+        int positions[] = new int[table.size()];
+        Arrays.fill(positions, -1);
+
+        for (int i = 0; i < size(); i++) {
+            if (tableIds[i] != -1 && tables[tableIds[i]] == table && positions[rows[i]] == -1) {
+                positions[rows[i]] = i;
+            }
+        }
+
+        return positions;
+    }
+
+    private DirectiveIndex getDirectiveIndex(boolean includeVHosts) {
+        return (includeVHosts ? vHostDirectiveIndex : directiveIndex);
+    }
+
+    private BitSet getIncludeMask(boolean includeVHosts) {
+        return (includeVHosts ? vHostIncludeMask : includeMask);
+    }
+
+    private static class EnclosureNode {
+        private final LexedLine lexedLine;
+        private final int open;
+        private int close;
+        private final List<EnclosureNode> children;
+
+        private EnclosureNode(LexedLine lexedLine, int open) {
+            this.lexedLine = lexedLine;
+            this.open = open;
+            this.close = -1;
+            this.children = new ArrayList<EnclosureNode>();
+        }
+    }
+}
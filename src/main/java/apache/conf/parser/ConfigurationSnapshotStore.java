@@ -0,0 +1,226 @@
+package apache.conf.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import apache.conf.global.AtomicFileWriter;
+
+/**
+ * <p>
+ * Class used to keep configuration snapshots on disk between runs of short lived processes.
+ * </p>
+ * <p>
+ * A snapshot is stored in a binary file in the snapshot directory. The file name is derived from a key that describes everything the parse depends on other than the configuration files, such as
+ * the root configuration file and the loaded modules. The key is also stored in the file so a hash collision can not load the wrong snapshot. The files and include directories of the
+ * configuration are checked with the fingerprints stored in the snapshot, so a stored snapshot is only used while none of them have changed.
+ * </p>
+ * <p>
+ * Large snapshot files are memory mapped when they are read. A file that can not be read, was written with a different {@link #formatVersion} or has a different key is ignored.
+ * </p>
+ */
+final class ConfigurationSnapshotStore {
+
+    /**
+     * The version of the file format. Files with another version are ignored.
+     */
+    static final int formatVersion = 1;
+
+    private static final int magic = 0x41435053;
+    private static final Charset charset = Charset.forName("UTF-8");
+
+    private final File directory;
+
+    /**
+     * @param directory
+     *            the directory that contains the snapshot files. It is created when the first snapshot is saved.
+     */
+    ConfigurationSnapshotStore(String directory) {
+        this.directory = new File(directory);
+    }
+
+    String getDirectory() {
+        return directory.getPath();
+    }
+
+    /**
+     * @param key
+     *            the key of the snapshot.
+     * @return the stored snapshot or null if there is no usable snapshot for the key.
+     */
+    ConfigurationSnapshot load(String key) {
+        File file = getSnapshotFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            Input input = new Input(ConfigurationFileReader.read(file.getPath()));
+            if (input.readInt() != magic || input.readInt() != formatVersion || !key.equals(input.readString())) {
+                return null;
+            }
+
+            return ConfigurationSnapshot.read(input);
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // a truncated or corrupt file
+            return null;
+        }
+    }
+
+    /**
+     * Stores a snapshot. The file is replaced atomically so a process that loads the snapshot at the same time reads either the old or the new snapshot.
+     *
+     * @param key
+     *            the key of the snapshot.
+     * @param snapshot
+     *            the snapshot to store.
+     * @throws IOException
+     */
+    void save(String key, ConfigurationSnapshot snapshot) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Unable to create the snapshot directory " + directory);
+        }
+
+        AtomicFileWriter writer = new AtomicFileWriter(false);
+        try {
+            FileChannel channel = writer.open(getSnapshotFile(key));
+            try {
+                Output output = new Output(Channels.newOutputStream(channel));
+                output.writeInt(magic);
+                output.writeInt(formatVersion);
+                output.writeString(key);
+                snapshot.write(output);
+                output.flush();
+            } finally {
+                channel.close();
+            }
+
+            writer.commit();
+        } finally {
+            writer.abort();
+        }
+    }
+
+    private File getSnapshotFile(String key) {
+        return new File(directory, "snapshot-" + FileFingerprint.hash(ByteBuffer.wrap(key.getBytes(charset))) + ".bin");
+    }
+
+    /**
+     * Stream used to write the values of a snapshot.
+     */
+    static class Output extends DataOutputStream {
+
+        Output(OutputStream stream) {
+            super(new BufferedOutputStream(stream, 65536));
+        }
+
+        /**
+         * Writes a String that may be null.
+         */
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                writeInt(-1);
+                return;
+            }
+
+            byte bytes[] = value.getBytes(charset);
+            writeInt(bytes.length);
+            write(bytes);
+        }
+
+        void writeInts(int values[]) throws IOException {
+            writeInt(values.length);
+
+            ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+            buffer.asIntBuffer().put(values);
+            write(buffer.array());
+        }
+
+        void writeLongs(long values[]) throws IOException {
+            writeInt(values.length);
+
+            ByteBuffer buffer = ByteBuffer.allocate(values.length * 8);
+            buffer.asLongBuffer().put(values);
+            write(buffer.array());
+        }
+
+        void writeByteArray(byte values[]) throws IOException {
+            writeInt(values.length);
+            write(values);
+        }
+    }
+
+    /**
+     * Class used to read the values written by {@link Output} from a buffer.
+     */
+    static class Input {
+        private final ByteBuffer buffer;
+
+        Input(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int readInt() {
+            return buffer.getInt();
+        }
+
+        long readLong() {
+            return buffer.getLong();
+        }
+
+        boolean readBoolean() {
+            return buffer.get() != 0;
+        }
+
+        String readString() {
+            if (buffer.getInt(buffer.position()) == -1) {
+                buffer.getInt();
+                return null;
+            }
+
+            byte bytes[] = new byte[readLength(1)];
+            buffer.get(bytes);
+            return new String(bytes, charset);
+        }
+
+        int[] readInts() {
+            int values[] = new int[readLength(4)];
+            buffer.asIntBuffer().get(values);
+            buffer.position(buffer.position() + values.length * 4);
+            return values;
+        }
+
+        long[] readLongs() {
+            long values[] = new long[readLength(8)];
+            buffer.asLongBuffer().get(values);
+            buffer.position(buffer.position() + values.length * 8);
+            return values;
+        }
+
+        byte[] readByteArray() {
+            byte values[] = new byte[readLength(1)];
+            buffer.get(values);
+            return values;
+        }
+
+        /**
+         * Reads the length of an array and checks that the buffer holds the whole array, so a corrupt length can not allocate a huge array.
+         */
+        private int readLength(int elementSize) {
+            int length = buffer.getInt();
+            if (length < 0 || (long) length * elementSize > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+
+            return length;
+        }
+    }
+}
@@ -0,0 +1,663 @@
+package apache.conf.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Stack;
+import java.util.regex.Pattern;
+
+import apache.conf.directives.Define;
+import apache.conf.global.AtomicFileWriter;
+import apache.conf.global.Const;
+
+/**
+ * <p>
+ * Class used to make several changes to the Apache configuration and write them together.
+ * </p>
+ * <p>
+ * A transaction is started with {@link Parser#beginTransaction()}. Every change is applied to an in memory copy of the affected files as soon as it is made, so later changes see the result of
+ * earlier changes and each method returns whether it found a match. The configuration is parsed once for the whole transaction and nothing is written until {@link #commit()} is called, which writes
+ * each changed file exactly once.
+ * </p>
+ * <p>
+ * The changes behave the same as the matching methods of {@link DirectiveParser} and {@link EnclosureParser}.
+ * </p>
+ * <p>
+ * A changed file is written by copying the bytes of its unchanged lines from the current file and only encoding the added and replaced lines, which keep the line ending of the file. When the file
+ * has changed since it was parsed the whole file is written from its configuration lines instead.
+ * </p>
+ */
+public class ConfigurationTransaction {
+
+    private static final Charset charset = Charset.forName("UTF-8");
+
+    private final Parser parser;
+    private final LinkedHashMap<String, FileEdit> fileEdits = new LinkedHashMap<String, FileEdit>();
+
+    private LinkedHashMap<String, Define> defines;
+    private boolean finished = false;
+
+    ConfigurationTransaction(Parser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Inserts a directive string before or after the first found matching directive type that has a value that matches the matchesPattern.
+     *
+     * @param directiveType
+     *            The directive name. This is not case sensitive.
+     * @param directiveString
+     *            The directive string to insert.
+     * @param matchesPattern
+     *            A filter that is used to check whether or not the directive matches a certain pattern.
+     * @param before
+     *            a boolean indicating whether the directiveString should be inserted before or after the first found directive. true for before, false for after.
+     * @param includeVHosts
+     *            flag to indicate whether to search for directives inside VirtualHosts
+     * @return a boolean indicating if the directive was found.
+     * @throws Exception
+     * @see DirectiveParser#insertDirectiveBeforeOrAfterFirstFound(String, String, Pattern, boolean, boolean)
+     */
+    public boolean insertDirectiveBeforeOrAfterFirstFound(String directiveType, String directiveString, Pattern matchesPattern, boolean before, boolean includeVHosts) throws Exception {
+        checkOpen();
+
+        ConfigurationSnapshot snapshot = parser.getConfigurationSnapshot();
+
+        // matches are compared by their place in the configuration, twice the position of a line so that an added line sits between two lines of the snapshot
+        FileEdit matchEdit = null;
+        int matchIndex = -1;
+        long matchPlace = Long.MAX_VALUE;
+
+        // the first match in the files that this transaction has not changed comes from the directive index, only the file of that match is loaded
+        for (int position : snapshot.getDirectivePositions(directiveType, includeVHosts)) {
+            ConfigurationLine configurationLine = snapshot.getConfigurationLine(position);
+
+            FileEdit fileEdit = fileEdits.get(getFileKey(configurationLine.getFile()));
+            if ((fileEdit != null && fileEdit.isChanged()) || !matchesPattern.matcher(configurationLine.getProcessedLine()).find()) {
+                continue;
+            }
+
+            fileEdit = getFileEdit(configurationLine.getFile());
+            int index = fileEdit.indexOf(configurationLine);
+            if (index >= 0) {
+                matchEdit = fileEdit;
+                matchIndex = index;
+                matchPlace = 2L * position;
+                break;
+            }
+        }
+
+        // the files that this transaction has changed are searched in their changed lines, which may have gained or lost a match
+        HashSet<String> activeFiles = new HashSet<String>();
+        for (String file : snapshot.getActiveConfFileList()) {
+            activeFiles.add(getFileKey(file));
+        }
+
+        IdentityHashMap<LineTable, int[]> rowPositions = new IdentityHashMap<LineTable, int[]>();
+        for (Map.Entry<String, FileEdit> entry : fileEdits.entrySet()) {
+            FileEdit fileEdit = entry.getValue();
+            if (!fileEdit.isChanged() || !activeFiles.contains(entry.getKey())) {
+                continue;
+            }
+
+            long place = -1;
+            ParsableLine lines[] = fileEdit.getParsableLines(includeVHosts);
+            for (int i = 0; i < lines.length; i++) {
+                ConfigurationLine configurationLine = lines[i].getConfigurationLine();
+
+                // an unchanged line has its own place, an added line is placed just after the unchanged line before it
+                int position = getPosition(snapshot, configurationLine, rowPositions);
+                if (position >= 0) {
+                    place = 2L * position;
+                } else if (place >= 0 && place % 2 == 0) {
+                    place++;
+                }
+
+                if (lines[i].isInclude() && configurationLine.getLexedLine().isDirective(directiveType) && matchesPattern.matcher(configurationLine.getProcessedLine()).find()) {
+                    // added lines before the first unchanged line are placed at the start of the file
+                    if (place < 0) {
+                        place = getStartPlace(snapshot, lines, rowPositions);
+                    }
+
+                    if (place < matchPlace) {
+                        matchEdit = fileEdit;
+                        matchIndex = i;
+                        matchPlace = place;
+                    }
+                    break;
+                }
+            }
+        }
+
+        if (matchEdit == null) {
+            return false;
+        }
+
+        matchEdit.insert(before ? matchIndex : matchIndex + 1, createConfigurationLine(directiveString, matchEdit.getFile()));
+        return true;
+    }
+
+    /**
+     * @return the position in the snapshot of an unchanged line, or -1 for a line added by this transaction.
+     */
+    private static int getPosition(ConfigurationSnapshot snapshot, ConfigurationLine configurationLine, IdentityHashMap<LineTable, int[]> rowPositions) {
+        LineTable table = configurationLine.getTable();
+        if (table == null) {
+            return -1;
+        }
+
+        int positions[] = rowPositions.get(table);
+        if (positions == null) {
+            positions = snapshot.getRowPositions(table);
+            rowPositions.put(table, positions);
+        }
+
+        return (configurationLine.getRow() < positions.length ? positions[configurationLine.getRow()] : -1);
+    }
+
+    /**
+     * @return the place just before the first unchanged line of a changed file, or the end of the configuration if no line of the file is left unchanged.
+     */
+    private static long getStartPlace(ConfigurationSnapshot snapshot, ParsableLine lines[], IdentityHashMap<LineTable, int[]> rowPositions) {
+        for (ParsableLine line : lines) {
+            int position = getPosition(snapshot, line.getConfigurationLine(), rowPositions);
+            if (position >= 0) {
+                return 2L * position - 1;
+            }
+        }
+
+        return Long.MAX_VALUE - 1;
+    }
+
+    /**
+     * Goes through the target file and removes any lines that match the directive type and pattern.
+     *
+     * @param directiveType
+     *            The directive name. This is not case sensitive.
+     * @param file
+     *            The target file.
+     * @param matchesPattern
+     *            The pattern to match against the directive value.
+     * @param commentOut
+     *            a boolean indicating if the directive should be commented out rather than completely removed from the file. true to comment out, false to remove.
+     * @param includeVHosts
+     *            flag to indicate whether to search for directives inside VirtualHosts
+     * @return a boolean indicating if the directive was found.
+     * @throws Exception
+     * @see DirectiveParser#removeDirectiveFromFile(String, String, Pattern, boolean, boolean)
+     */
+    public boolean removeDirectiveFromFile(String directiveType, String file, Pattern matchesPattern, boolean commentOut, boolean includeVHosts) throws Exception {
+        checkOpen();
+
+        FileEdit fileEdit = getFileEdit(file);
+
+        boolean changed = false;
+
+        ParsableLine lines[] = fileEdit.getParsableLines(includeVHosts);
+        for (int i = lines.length - 1; i >= 0; i--) {
+            ConfigurationLine configurationLine = lines[i].getConfigurationLine();
+
+            if (configurationLine.getLexedLine().isDirective(directiveType) && lines[i].isInclude() && matchesPattern.matcher(configurationLine.getProcessedLine()).find()) {
+                changed = true;
+
+                if (commentOut) {
+                    fileEdit.set(i, createConfigurationLine("#" + configurationLine.getLine(), fileEdit.getFile()));
+                } else {
+                    fileEdit.remove(i);
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Goes through the target file and replaces the value of any directives that match the directiveType and matchesPattern with the passed in insertValue.
+     *
+     * @param directiveType
+     *            The directive type. This is not case sensitive.
+     * @param file
+     *            The target file.
+     * @param insertValue
+     *            The value to insert.
+     * @param matchesPattern
+     *            The pattern to match against the directive value.
+     * @param add
+     *            Specifies whether we should add the directive to the file if it doesn't exist. true to add, false otherwise.
+     * @param includeVHosts
+     *            flag to indicate whether to search for directives inside VirtualHosts
+     * @return a boolean indicating if the file was changed.
+     * @throws Exception
+     * @see DirectiveParser#setDirectiveInFile(String, String, String, Pattern, boolean, boolean)
+     */
+    public boolean setDirectiveInFile(String directiveType, String file, String insertValue, Pattern matchesPattern, boolean add, boolean includeVHosts) throws Exception {
+        checkOpen();
+
+        FileEdit fileEdit = getFileEdit(file);
+
+        boolean changed = false;
+
+        ParsableLine lines[] = fileEdit.getParsableLines(includeVHosts);
+        for (int i = 0; i < lines.length; i++) {
+            ConfigurationLine configurationLine = lines[i].getConfigurationLine();
+
+            if (configurationLine.getLexedLine().isDirective(directiveType) && lines[i].isInclude() && matchesPattern.matcher(configurationLine.getProcessedLine()).find()) {
+                changed = true;
+
+                fileEdit.set(i, createConfigurationLine(directiveType + " " + insertValue, fileEdit.getFile()));
+            }
+        }
+
+        if (!changed && add) {
+            changed = true;
+
+            fileEdit.insert(fileEdit.size(), createConfigurationLine("", fileEdit.getFile()));
+            fileEdit.insert(fileEdit.size(), createConfigurationLine(directiveType + " " + insertValue, fileEdit.getFile()));
+        }
+
+        return changed;
+    }
+
+    /**
+     * Removes all Enclosures from the active configuration that match the enclosure type and enclosure value pattern.
+     *
+     * @param enclosureType
+     *            The enclosure name. This is not case sensitive.
+     * @param matchesValuePattern
+     *            The pattern to match the enclosure value against
+     * @param commentOut
+     *            true to comment out the matching enclosure, false to remove the enclosure
+     * @param includeVHosts
+     *            boolean indicating whether to search for enclosures inside virtual hosts
+     * @return a boolean indicating if an enclosure was found.
+     * @throws Exception
+     * @see EnclosureParser#deleteEnclosure(String, Pattern, boolean, boolean)
+     */
+    public boolean deleteEnclosure(String enclosureType, Pattern matchesValuePattern, boolean commentOut, boolean includeVHosts) throws Exception {
+        checkOpen();
+
+        return editEnclosures(enclosureType, matchesValuePattern, commentOut, null, includeVHosts);
+    }
+
+    /**
+     * Replaces all Enclosures in the active configuration that match the enclosure type and enclosure value pattern. The lines from the opening line to the closing line of each matching enclosure
+     * are replaced with the enclosure text.
+     *
+     * @param enclosureType
+     *            The enclosure name. This is not case sensitive.
+     * @param matchesValuePattern
+     *            The pattern to match the enclosure value against
+     * @param enclosureText
+     *            The text to replace each matching enclosure with. This may contain several lines eg. the result of {@link Enclosure#toString()}.
+     * @param includeVHosts
+     *            boolean indicating whether to search for enclosures inside virtual hosts
+     * @return a boolean indicating if an enclosure was found.
+     * @throws Exception
+     * @see EnclosureParser#replaceEnclosure(String, Pattern, String, boolean)
+     */
+    public boolean replaceEnclosure(String enclosureType, Pattern matchesValuePattern, String enclosureText, boolean includeVHosts) throws Exception {
+        checkOpen();
+
+        return editEnclosures(enclosureType, matchesValuePattern, false, enclosureText.split("\\r\\n|\\r|\\n"), includeVHosts);
+    }
+
+    /**
+     * Removes, comments out or replaces the matching enclosures. Only the files that contain a matching enclosure are read.
+     */
+    private boolean editEnclosures(String enclosureType, Pattern matchesValuePattern, boolean commentOut, String replacementLines[], boolean includeVHosts) throws Exception {
+        boolean found = false;
+
+        for (String file : getEnclosureFiles(enclosureType, matchesValuePattern)) {
+            FileEdit fileEdit = getFileEdit(file);
+
+            ParsableLine lines[] = fileEdit.getParsableLines(includeVHosts);
+
+            ArrayList<ConfigurationLine> editedLines = new ArrayList<ConfigurationLine>(lines.length);
+            boolean changed = false;
+
+            Stack<String> enclosureStack = new Stack<String>();
+            for (ParsableLine line : lines) {
+                ConfigurationLine configurationLine = line.getConfigurationLine();
+                LexedLine lexedLine = configurationLine.getLexedLine();
+
+                if (lexedLine.isEnclosureOpen(enclosureType)) {
+                    if (!enclosureStack.isEmpty()) {
+                        // a nested enclosure of the same type is part of the matching enclosure
+                        enclosureStack.push(configurationLine.getProcessedLine());
+                    } else if (line.isInclude() && matchesValuePattern.matcher(configurationLine.getProcessedLine()).find()) {
+                        enclosureStack.push(configurationLine.getProcessedLine());
+                        changed = true;
+
+                        if (replacementLines != null) {
+                            for (String replacementLine : replacementLines) {
+                                editedLines.add(createConfigurationLine(replacementLine, fileEdit.getFile()));
+                            }
+                        }
+                    }
+                }
+
+                if (!enclosureStack.isEmpty()) {
+                    if (lexedLine.isEnclosureClose(enclosureType)) {
+                        enclosureStack.pop();
+                    }
+
+                    if (replacementLines == null && !lexedLine.isComment() && commentOut) {
+                        editedLines.add(createConfigurationLine("#" + configurationLine.getLine(), fileEdit.getFile()));
+                    }
+                } else {
+                    editedLines.add(configurationLine);
+                }
+            }
+
+            if (changed) {
+                fileEdit.replaceAll(editedLines);
+                found = true;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * @return the active files with a matching enclosure followed by the active files that were already changed by this transaction, which may have gained a matching enclosure.
+     */
+    private Collection<String> getEnclosureFiles(String enclosureType, Pattern matchesValuePattern) throws Exception {
+        ConfigurationSnapshot snapshot = parser.getConfigurationSnapshot();
+
+        LinkedHashMap<String, String> files = new LinkedHashMap<String, String>();
+        for (String file : snapshot.getEnclosureFiles(enclosureType, matchesValuePattern)) {
+            files.put(getFileKey(file), file);
+        }
+
+        HashSet<String> activeFiles = new HashSet<String>();
+        for (String file : snapshot.getActiveConfFileList()) {
+            activeFiles.add(getFileKey(file));
+        }
+
+        for (Map.Entry<String, FileEdit> fileEdit : fileEdits.entrySet()) {
+            if (fileEdit.getValue().isChanged() && activeFiles.contains(fileEdit.getKey()) && !files.containsKey(fileEdit.getKey())) {
+                files.put(fileEdit.getKey(), fileEdit.getValue().getFile());
+            }
+        }
+
+        return files.values();
+    }
+
+    /**
+     * @return the files that will be written by {@link #commit()} in the order that they were first changed.
+     */
+    public String[] getChangedFiles() {
+        ArrayList<String> files = new ArrayList<String>();
+        for (FileEdit fileEdit : fileEdits.values()) {
+            if (fileEdit.isChanged()) {
+                files.add(fileEdit.getFile());
+            }
+        }
+
+        return files.toArray(new String[files.size()]);
+    }
+
+    /**
+     * Writes every changed file once and ends the transaction. All files are written to temporary files first and are only renamed over the originals once every file has been written, so a failure
+     * while writing leaves every file unchanged.
+     *
+     * @throws Exception
+     * @see Parser#setSyncWrites(boolean)
+     */
+    public void commit() throws Exception {
+        checkOpen();
+        finished = true;
+
+        ParserListener listener = parser.getParserListener();
+        long start = (listener == null ? 0 : System.nanoTime());
+
+        AtomicFileWriter writer = new AtomicFileWriter(parser.isSyncWrites());
+        try {
+            for (FileEdit fileEdit : fileEdits.values()) {
+                if (fileEdit.isChanged()) {
+                    fileEdit.write(writer);
+                }
+            }
+
+            writer.commit();
+
+            if (listener != null) {
+                listener.editCommitted(getChangedFiles(), System.nanoTime() - start);
+            }
+        } finally {
+            writer.abort();
+            parser.invalidateConfigurationSnapshot();
+        }
+    }
+
+    /**
+     * Discards all changes and ends the transaction. Nothing is written.
+     */
+    public void rollback() {
+        finished = true;
+        fileEdits.clear();
+    }
+
+    private void checkOpen() {
+        if (finished) {
+            throw new IllegalStateException("The transaction has already been committed or rolled back");
+        }
+    }
+
+    private FileEdit getFileEdit(String file) throws Exception {
+        String key = getFileKey(file);
+
+        FileEdit fileEdit = fileEdits.get(key);
+        if (fileEdit == null) {
+            // the byte offsets of the lines are only known for the content they were read from
+            String contentHash = parser.fileCache.getSegment(file).getFingerprint().getContentHash();
+
+            ParsableLine lines[] = parser.getFileParsableLines(file, true);
+
+            if (!contentHash.equals(parser.fileCache.getSegment(file).getFingerprint().getContentHash())) {
+                contentHash = null;
+            }
+
+            ArrayList<ConfigurationLine> configurationLines = new ArrayList<ConfigurationLine>(lines.length);
+            for (ParsableLine line : lines) {
+                configurationLines.add(line.getConfigurationLine());
+            }
+
+            fileEdit = new FileEdit(file, configurationLines, contentHash);
+            fileEdits.put(key, fileEdit);
+        }
+
+        return fileEdit;
+    }
+
+    private static String getFileKey(String file) {
+        try {
+            return new File(file).getCanonicalPath();
+        } catch (IOException e) {
+            return new File(file).getAbsolutePath();
+        }
+    }
+
+    /**
+     * Creates a configuration line for a line added by this transaction. The line is processed with the Defines of the active configuration the same way it would be when the configuration is
+     * parsed again.
+     */
+    private ConfigurationLine createConfigurationLine(String line, String file) throws Exception {
+        if (defines == null) {
+            defines = new LinkedHashMap<String, Define>();
+            for (Define define : parser.getConfigurationSnapshot().getDefines()) {
+                defines.put(define.getName(), define);
+            }
+        }
+
+        String processedLine = Parser.processConfigurationLine(line);
+        if (!defines.isEmpty() || parser.isResolveEnvironmentVariables()) {
+            processedLine = Define.replaceDefinesInString(defines, processedLine, parser.isResolveEnvironmentVariables());
+        }
+
+        return new ConfigurationLine(line, LineLexer.lex(processedLine), file, 0, 0);
+    }
+
+    /**
+     * The in memory copy of one configuration file.
+     */
+    private class FileEdit {
+        private final String file;
+        private final String contentHash;
+        private ArrayList<ConfigurationLine> configurationLines;
+        private boolean changed = false;
+
+        FileEdit(String file, ArrayList<ConfigurationLine> configurationLines, String contentHash) {
+            this.file = file;
+            this.configurationLines = configurationLines;
+            this.contentHash = contentHash;
+        }
+
+        String getFile() {
+            return file;
+        }
+
+        boolean isChanged() {
+            return changed;
+        }
+
+        int size() {
+            return configurationLines.size();
+        }
+
+        ParsableLine[] getParsableLines(boolean includeVHosts) throws Exception {
+            return parser.getParsableLines(configurationLines.toArray(new ConfigurationLine[configurationLines.size()]), includeVHosts);
+        }
+
+        /**
+         * @return the index of the unchanged line of the file that the snapshot line was read from, or -1 if the line has been changed or removed.
+         */
+        int indexOf(ConfigurationLine snapshotLine) {
+            for (int i = 0; i < configurationLines.size(); i++) {
+                ConfigurationLine configurationLine = configurationLines.get(i);
+                if (configurationLine.getTable() != null && configurationLine.getTable() == snapshotLine.getTable() && configurationLine.getRow() == snapshotLine.getRow()) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        void set(int index, ConfigurationLine configurationLine) {
+            configurationLines.set(index, configurationLine);
+            changed = true;
+        }
+
+        void insert(int index, ConfigurationLine configurationLine) {
+            configurationLines.add(index, configurationLine);
+            changed = true;
+        }
+
+        void remove(int index) {
+            configurationLines.remove(index);
+            changed = true;
+        }
+
+        void replaceAll(ArrayList<ConfigurationLine> configurationLines) {
+            this.configurationLines = configurationLines;
+            changed = true;
+        }
+
+        /**
+         * Writes the edited file. The byte ranges of consecutive unchanged lines are copied in one piece.
+         */
+        void write(AtomicFileWriter writer) throws IOException {
+            ByteBuffer content = ConfigurationFileReader.read(file);
+            String lineEnding = ConfigurationFileReader.getLineEnding(content);
+
+            if (contentHash == null || !contentHash.equals(FileFingerprint.hash(content))) {
+                writer.write(new File(file), getText(lineEnding), charset);
+                return;
+            }
+
+            int base = content.position();
+            int length = content.remaining();
+
+            FileChannel channel = writer.open(new File(file));
+            try {
+                int runStart = 0, runEnd = 0;
+                boolean lineEnded = true;
+                for (ConfigurationLine configurationLine : configurationLines) {
+                    int startOffset = configurationLine.getStartOffset();
+                    int endOffset = configurationLine.getEndOffset();
+
+                    if (startOffset >= 0 && endOffset <= length && (startOffset == runEnd && runEnd > runStart)) {
+                        runEnd = endOffset;
+                        continue;
+                    }
+
+                    lineEnded = writeRange(channel, content, base, runStart, runEnd, lineEnded, lineEnding);
+
+                    if (startOffset >= 0 && endOffset <= length) {
+                        runStart = startOffset;
+                        runEnd = endOffset;
+                    } else {
+                        runStart = runEnd = 0;
+                        writeFully(channel, charset.encode((lineEnded ? "" : lineEnding) + getLine(configurationLine, lineEnding) + lineEnding));
+                        lineEnded = true;
+                    }
+                }
+
+                writeRange(channel, content, base, runStart, runEnd, lineEnded, lineEnding);
+            } finally {
+                channel.close();
+            }
+        }
+
+        /**
+         * @return true if the written range ends with a line ending.
+         */
+        private boolean writeRange(FileChannel channel, ByteBuffer content, int base, int start, int end, boolean lineEnded, String lineEnding) throws IOException {
+            if (end <= start) {
+                return lineEnded;
+            }
+
+            if (!lineEnded) {
+                writeFully(channel, charset.encode(lineEnding));
+            }
+
+            ByteBuffer range = content.duplicate();
+            range.limit(base + end);
+            range.position(base + start);
+            writeFully(channel, range);
+
+            byte last = content.get(base + end - 1);
+            return last == '\n' || last == '\r';
+        }
+
+        private void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        StringBuffer getText(String lineEnding) {
+            StringBuffer fileText = new StringBuffer();
+            for (ConfigurationLine configurationLine : configurationLines) {
+                fileText.append(getLine(configurationLine, lineEnding)).append(lineEnding);
+            }
+
+            return fileText;
+        }
+
+        /**
+         * @return the line with the line endings of a multi-line configuration line replaced by the line ending of the file.
+         */
+        private String getLine(ConfigurationLine configurationLine, String lineEnding) {
+            String line = configurationLine.getLine();
+            return lineEnding.equals(Const.newLine) ? line : line.replace(Const.newLine, lineEnding);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package apache.conf.parser;
+
+/**
+ * <p>
+ * Interface used to receive the lines of the Apache configuration as they are read by {@link Parser#visitConfiguration(ConfigurationVisitor, boolean)}.
+ * </p>
+ * <p>
+ * Lines are passed in the order that they appear in the Apache configuration. Each line is wrapped in a {@link ParsableLine} that tells whether the line is parsable. Every method returns a boolean,
+ * return false to stop reading the configuration.
+ * </p>
+ * <p>
+ * Extend {@link ConfigurationVisitorAdapter} to implement only the methods that are needed.
+ * </p>
+ */
+public interface ConfigurationVisitor {
+
+    /**
+     * Called for every line that does not open or close an enclosure, including comments and blank lines.
+     * 
+     * @param line
+     *            the line.
+     * @return true to continue, false to stop.
+     * @throws Exception
+     */
+    boolean onLine(ParsableLine line) throws Exception;
+
+    /**
+     * Called for a line that opens an enclosure eg. &lt;VirtualHost *:80&gt;
+     * 
+     * @param line
+     *            the enclosure line.
+     * @return true to continue, false to stop.
+     * @throws Exception
+     */
+    boolean onEnclosureStart(ParsableLine line) throws Exception;
+
+    /**
+     * Called for a line that closes an enclosure eg. &lt;/VirtualHost&gt;
+     * 
+     * @param line
+     *            the closing enclosure line.
+     * @return true to continue, false to stop.
+     * @throws Exception
+     */
+    boolean onEnclosureEnd(ParsableLine line) throws Exception;
+
+    /**
+     * Called before the lines of an included file are passed. An Include directive that matches several files is passed once for each file after it has been passed to
+     * {@link #onLine(ParsableLine)}.
+     * 
+     * @param includeLine
+     *            the Include line.
+     * @param file
+     *            the included file.
+     * @return true to continue, false to stop.
+     * @throws Exception
+     */
+    boolean onInclude(ParsableLine includeLine, String file) throws Exception;
+}
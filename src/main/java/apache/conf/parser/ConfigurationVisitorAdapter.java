@@ -0,0 +1,25 @@
+package apache.conf.parser;
+
+/**
+ * <p>
+ * An implementation of {@link ConfigurationVisitor} that continues on every line. Extend this class to implement only the methods that are needed.
+ * </p>
+ */
+public class ConfigurationVisitorAdapter implements ConfigurationVisitor {
+
+    public boolean onLine(ParsableLine line) throws Exception {
+        return true;
+    }
+
+    public boolean onEnclosureStart(ParsableLine line) throws Exception {
+        return true;
+    }
+
+    public boolean onEnclosureEnd(ParsableLine line) throws Exception {
+        return true;
+    }
+
+    public boolean onInclude(ParsableLine includeLine, String file) throws Exception {
+        return true;
+    }
+}
@@ -0,0 +1,322 @@
+package apache.conf.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Class used to keep the configuration of a parser up to date by watching the configuration files for changes instead of polling.
+ * </p>
+ * <p>
+ * Every directory that holds a file of the active configuration and every directory that is included through a directory or wildcard Include is watched with a {@link WatchService}. A file
+ * included through a symbolic link is also watched in the directory of its target. Changes are collected until no change has been seen for {@link #getDebounceMillis()} so that a burst of changes,
+ * such as an editor saving a file or a deployment replacing several files, is parsed once. Only the changed files are read again, the other files come from the file cache of the parser. After every
+ * parse the watched directories are updated to match the includes of the new configuration.
+ * </p>
+ * <p>
+ * Subscribers are told about every change with {@link ConfigurationChangeListener}. A change that leaves the content of every file the same, such as touching a file, is not reported.
+ * </p>
+ * <p>
+ * The watcher parses the configuration on its own thread through {@link Parser#getConfigurationSnapshot()}, which is synchronized, so the queries of the parser can be used while it is watched.
+ * {@link #getConfigurationSnapshot()} returns the snapshot of the last change without checking the files at all.
+ * </p>
+ */
+public class ConfigurationWatcher implements Closeable {
+
+    private final Parser parser;
+    private final CopyOnWriteArrayList<ConfigurationChangeListener> listeners = new CopyOnWriteArrayList<ConfigurationChangeListener>();
+
+    private volatile long debounceMillis = 200;
+    private volatile ConfigurationSnapshot snapshot;
+    private volatile boolean closed = false;
+
+    private WatchService watchService;
+    private Thread thread;
+
+    // only used by the watcher thread once started
+    private final HashMap<Path, WatchKey> watchKeys = new HashMap<Path, WatchKey>();
+    private HashSet<Path> files = new HashSet<Path>();
+    private HashSet<Path> includeDirectories = new HashSet<Path>();
+
+    /**
+     * @param parser
+     *            the parser whose configuration is watched.
+     */
+    public ConfigurationWatcher(Parser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Parses the configuration and starts watching it.
+     * 
+     * @throws Exception
+     *             if the configuration can not be parsed or watched.
+     */
+    public synchronized void start() throws Exception {
+        if (thread != null) {
+            throw new IllegalStateException("The watcher has already been started");
+        }
+
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            snapshot = parser.getConfigurationSnapshot();
+            updateWatches(snapshot);
+        } catch (Exception e) {
+            watchService.close();
+            throw e;
+        }
+
+        thread = new Thread(new Runnable() {
+            public void run() {
+                watch();
+            }
+        }, "ApacheConfParser-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching the configuration. The listeners are not called after this method returns.
+     */
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = this.thread;
+            if (watchService != null) {
+                watchService.close();
+            }
+        }
+
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public void addListener(ConfigurationChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ConfigurationChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the snapshot of the configuration as of the last change, or null if the watcher has not been started.
+     */
+    public ConfigurationSnapshot getConfigurationSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @param debounceMillis
+     *            how long the configuration must go without changes before it is parsed. The default is 200 milliseconds.
+     */
+    public void setDebounceMillis(long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+    }
+
+    public long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    private void watch() {
+        try {
+            while (!closed) {
+                boolean changed = process(watchService.take());
+
+                // a steady stream of changes is still parsed every so often
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMillis * 10);
+
+                WatchKey key;
+                while (System.nanoTime() < deadline && (key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= process(key);
+                }
+
+                if (changed && !closed) {
+                    refresh();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // closed
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * @return true if one of the events may change the configuration.
+     */
+    private boolean process(WatchKey key) {
+        Path directory = (Path) key.watchable();
+
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed = true;
+            } else {
+                Path path = directory.resolve((Path) event.context());
+                if (files.contains(path) || includeDirectories.contains(directory) || includeDirectories.contains(path)) {
+                    changed = true;
+                }
+            }
+        }
+
+        // the directory no longer exists
+        if (!key.reset()) {
+            watchKeys.remove(directory);
+            changed = true;
+        }
+
+        return changed;
+    }
+
+    private void refresh() {
+        ConfigurationSnapshot previous = snapshot;
+        ConfigurationSnapshot current;
+        try {
+            current = parser.getConfigurationSnapshot();
+        } catch (Exception e) {
+            for (ConfigurationChangeListener listener : listeners) {
+                try {
+                    listener.refreshFailed(e);
+                } catch (RuntimeException listenerException) {
+                    // a failing listener must not stop the watcher or the other listeners
+                    listenerException.printStackTrace();
+                }
+            }
+            return;
+        }
+
+        if (current == previous) {
+            return;
+        }
+
+        snapshot = current;
+        updateWatches(current);
+
+        String changedFiles[] = getChangedFiles(previous, current);
+        if (changedFiles.length == 0 || closed) {
+            return;
+        }
+
+        for (ConfigurationChangeListener listener : listeners) {
+            try {
+                listener.configurationChanged(current, changedFiles);
+            } catch (RuntimeException e) {
+                // a failing listener must not stop the watcher or the other listeners
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Watches the directories of the configuration and stops watching directories that are no longer part of it.
+     */
+    private void updateWatches(ConfigurationSnapshot snapshot) {
+        HashSet<Path> files = new HashSet<Path>();
+        HashSet<Path> includeDirectories = new HashSet<Path>();
+        HashSet<Path> directories = new HashSet<Path>();
+
+        for (FileFingerprint fingerprint : snapshot.getFingerprints()) {
+            Path path = Paths.get(fingerprint.getPath()).toAbsolutePath().normalize();
+
+            // only files have a content hash
+            if (fingerprint.getContentHash() == null) {
+                includeDirectories.add(path);
+                directories.add(path);
+            } else {
+                files.add(path);
+                directories.add(path.getParent());
+
+                // a file included through a symbolic link, such as a site enabled from sites-available, is changed in the directory of its target
+                try {
+                    Path realPath = path.toRealPath();
+                    if (!realPath.equals(path)) {
+                        files.add(realPath);
+                        directories.add(realPath.getParent());
+                    }
+                } catch (IOException e) {
+                    // the file was removed, the parse that follows its removal updates the watches
+                }
+            }
+        }
+
+        Iterator<Map.Entry<Path, WatchKey>> iterator = watchKeys.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, WatchKey> entry = iterator.next();
+            if (!directories.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+
+        for (Path directory : directories) {
+            if (!watchKeys.containsKey(directory)) {
+                try {
+                    watchKeys.put(directory, directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY));
+                } catch (IOException e) {
+                    // the directory was removed, the parse that follows its removal updates the watches
+                } catch (ClosedWatchServiceException e) {
+                    return;
+                }
+            }
+        }
+
+        this.files = files;
+        this.includeDirectories = includeDirectories;
+    }
+
+    /**
+     * @return the files whose content differs between the snapshots, including the files that are only in one of them.
+     */
+    private static String[] getChangedFiles(ConfigurationSnapshot previous, ConfigurationSnapshot current) {
+        HashMap<String, String> previousHashes = getContentHashes(previous);
+        HashMap<String, String> currentHashes = getContentHashes(current);
+
+        TreeSet<String> changedFiles = new TreeSet<String>();
+        for (Map.Entry<String, String> entry : currentHashes.entrySet()) {
+            if (!entry.getValue().equals(previousHashes.get(entry.getKey()))) {
+                changedFiles.add(entry.getKey());
+            }
+        }
+        for (String file : previousHashes.keySet()) {
+            if (!currentHashes.containsKey(file)) {
+                changedFiles.add(file);
+            }
+        }
+
+        return changedFiles.toArray(new String[changedFiles.size()]);
+    }
+
+    private static HashMap<String, String> getContentHashes(ConfigurationSnapshot snapshot) {
+        HashMap<String, String> hashes = new HashMap<String, String>();
+        for (FileFingerprint fingerprint : snapshot.getFingerprints()) {
+            if (fingerprint.getContentHash() != null) {
+                hashes.put(fingerprint.getPath(), fingerprint.getContentHash());
+            }
+        }
+
+        return hashes;
+    }
+}
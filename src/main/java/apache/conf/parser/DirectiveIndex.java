@@ -0,0 +1,102 @@
+package apache.conf.parser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>
+ * Class used to index the active directives of a configuration by name. Directive names are normalized to lower case so lookups are not case sensitive.
+ * </p>
+ * <p>
+ * Each name maps to the positions of its configuration lines in the order that they appear in the Apache configuration, so a lookup costs the number of matching lines rather than the size of the
+ * configuration.
+ * </p>
+ */
+class DirectiveIndex {
+
+    private static final int[] noLines = new int[0];
+
+    private final HashMap<String, int[]> index;
+
+    /**
+     * @param lexedLines
+     *            the lexed configuration lines in the order that they appear in the Apache configuration.
+     * @param mask
+     *            flags indicating which configuration lines are active.
+     */
+    DirectiveIndex(LexedLine lexedLines[], BitSet mask) {
+
+        HashMap<String, ArrayList<Integer>> positions = new HashMap<String, ArrayList<Integer>>();
+
+        LexedLine lexedLine;
+        for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) {
+            lexedLine = lexedLines[i];
+            if (lexedLine.isDirective() && lexedLine.hasArguments()) {
+                String name = normalize(lexedLine.getName());
+
+                ArrayList<Integer> namePositions = positions.get(name);
+                if (namePositions == null) {
+                    namePositions = new ArrayList<Integer>();
+                    positions.put(name, namePositions);
+                }
+                namePositions.add(i);
+            }
+        }
+
+        index = new HashMap<String, int[]>(positions.size() * 2);
+        for (Map.Entry<String, ArrayList<Integer>> entry : positions.entrySet()) {
+            ArrayList<Integer> namePositions = entry.getValue();
+
+            int lines[] = new int[namePositions.size()];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = namePositions.get(i);
+            }
+
+            index.put(entry.getKey(), lines);
+        }
+    }
+
+    private DirectiveIndex(HashMap<String, int[]> index) {
+        this.index = index;
+    }
+
+    /**
+     * Writes the index so it can be read with {@link #read(ConfigurationSnapshotStore.Input)}.
+     */
+    void write(ConfigurationSnapshotStore.Output output) throws IOException {
+        output.writeInt(index.size());
+        for (Map.Entry<String, int[]> entry : index.entrySet()) {
+            output.writeString(entry.getKey());
+            output.writeInts(entry.getValue());
+        }
+    }
+
+    static DirectiveIndex read(ConfigurationSnapshotStore.Input input) {
+        int size = input.readInt();
+
+        HashMap<String, int[]> index = new HashMap<String, int[]>(size * 2);
+        for (int i = 0; i < size; i++) {
+            index.put(input.readString(), input.readInts());
+        }
+
+        return new DirectiveIndex(index);
+    }
+
+    static String normalize(String directiveType) {
+        return directiveType.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * @param directiveType
+     *            The directive name. This is not case sensitive.
+     * @return the positions of the matching configuration lines in ascending order. The returned array must not be modified.
+     */
+    int[] get(String directiveType) {
+        int lines[] = index.get(normalize(directiveType));
+        return (lines == null ? noLines : lines);
+    }
+}
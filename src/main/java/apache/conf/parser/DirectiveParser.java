@@ -1,11 +1,9 @@
 package apache.conf.parser;
 
-import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Set;
 import java.util.regex.Pattern;
 
-import apache.conf.global.Const;
-import apache.conf.global.Utils;
 import apache.conf.modules.SharedModule;
 import apache.conf.modules.StaticModule;
 
@@ -44,10 +42,7 @@ public class DirectiveParser extends Parser {
      * @return an array with the directive parts
      */
     public static String[] extractDirectiveToParts(String line) {
-        String strLine = line.replaceAll(Const.replaceCommaSpacesRegex, ",");
-        strLine = strLine.replaceAll(Const.replaceSpacesInValuesRegex, "@@");
-    
-        return strLine.split("@@");
+        return ValueTokenizer.tokenize(line);
     }
     
     /**
@@ -64,40 +59,39 @@ public class DirectiveParser extends Parser {
      */
     public Directive[] getDirective(String directiveType, boolean includeVHosts) throws Exception {
 
-        ArrayList<Directive> directives = new ArrayList<Directive>();
+        return getConfigurationSnapshot().getDirective(directiveType, includeVHosts);
+    }
 
-        boolean loadDefines = true;
-        if (directiveType.equals(Const.defineDirective)) {
-            loadDefines = false;
-        }
+    /**
+     * <p>
+     * Parses all active configuration files for several directives at once.
+     * </p>
+     * <p>
+     * For example searching for "Listen" and "ServerName" returns all Listen and ServerName directives in the order that they appear in the configuration.
+     * </p>
+     * 
+     * @param directiveTypes
+     *            The directive names. These are not case sensitive.
+     * @param includeVHosts
+     *            flag to indicate whether to include directives inside VirtualHosts
+     * @return an array with all instances of the directives.
+     * @throws Exception
+     */
+    public Directive[] getDirectives(Set<String> directiveTypes, boolean includeVHosts) throws Exception {
+        return getConfigurationSnapshot().getDirectives(directiveTypes, includeVHosts);
+    }
 
-        ParsableLine lines[] = getConfigurationParsableLines(loadDefines, includeVHosts);
-        String strLine = "";
-        for (ParsableLine line : lines) {
-            if (line.isInclude()) {
-
-                strLine = line.getConfigurationLine().getProcessedLine();
-                
-                String directiveValueList[];
-                Directive addDirective;
-
-                if (!isCommentMatch(strLine) && isDirectiveMatch(strLine, directiveType)) {
-                    
-                    addDirective = new Directive(directiveType);
-
-                    directiveValueList = extractDirectiveToParts(strLine);
-                    for (int i = 1; i < directiveValueList.length; i++) {
-                        addDirective.addValue(directiveValueList[i]);
-                    }
-                    
-                    addDirective.setConfigurationLine(line.getConfigurationLine());
-
-                    directives.add(addDirective);
-                }
-            }
+    static Directive createDirective(String directiveType, ConfigurationLine configurationLine) {
+        Directive directive = new Directive(directiveType);
+
+        String directiveValueList[] = extractDirectiveToParts(configurationLine.getProcessedLine());
+        for (int i = 1; i < directiveValueList.length; i++) {
+            directive.addValue(directiveValueList[i]);
         }
 
-        return directives.toArray(new Directive[directives.size()]);
+        directive.setConfigurationLine(configurationLine);
+
+        return directive;
     }
 
     /**
@@ -119,8 +113,11 @@ public class DirectiveParser extends Parser {
      * @throws Exception
      */
     public String[] getDirectiveValue(String directiveType, boolean includeVHosts) throws Exception {
+        return getDirectiveValues(getDirective(directiveType, includeVHosts));
+    }
+
+    static String[] getDirectiveValues(Directive directives[]) {
         ArrayList<String> directiveValues = new ArrayList<String>();
-        Directive directives[] = getDirective(directiveType, includeVHosts);
 
         String directiveValueList[];
         String values;
@@ -190,52 +187,11 @@ public class DirectiveParser extends Parser {
      */
     public boolean insertDirectiveBeforeOrAfterFirstFound(String directiveType, String directiveString, Pattern matchesPattern, boolean before, boolean includeVHosts) throws Exception {
 
-        boolean directiveFound = false;
-
-        String file = getDirectiveFile(directiveType, matchesPattern, includeVHosts);
-
-        if (file != null) {
-
-            directiveFound = true;
-
-            StringBuffer fileText = new StringBuffer();
-
-            ParsableLine lines[] = getFileParsableLines(file, includeVHosts);
+        ConfigurationTransaction transaction = beginTransaction();
 
-            String strLine = "", cmpLine = "";
+        boolean directiveFound = transaction.insertDirectiveBeforeOrAfterFirstFound(directiveType, directiveString, matchesPattern, before, includeVHosts);
 
-            boolean found = false;
-            for (ParsableLine line : lines) {
-                strLine = line.getConfigurationLine().getLine();
-                cmpLine = line.getConfigurationLine().getProcessedLine();
-
-                if (found) {
-                    fileText.append(strLine + Const.newLine);
-                    continue;
-                }
-
-                if (!before) {
-                    fileText.append(strLine + Const.newLine);
-                }
-
-                if (line.isInclude()) {
-                    if (!isCommentMatch(cmpLine) && isDirectiveMatch(cmpLine, directiveType)) {
-                        if (matchesPattern.matcher(cmpLine).find()) {
-                            fileText.append(directiveString + Const.newLine);
-                            found = true;
-                        }
-                    }
-                }
-
-                if (before) {
-                    fileText.append(strLine + Const.newLine);
-                }
-            }
-
-            if (found) {
-                Utils.writeStringBufferToFile(new File(file), fileText, Charset.forName("UTF-8"));
-            }
-        }
+        transaction.commit();
 
         return directiveFound;
     }
@@ -253,23 +209,7 @@ public class DirectiveParser extends Parser {
      * @throws Exception
      */
     public String getDirectiveFile(String directiveType, Pattern matchesPattern, boolean includeVHosts) throws Exception {
-
-        ParsableLine lines[] = getConfigurationParsableLines(includeVHosts);
-
-        String strLine = "";
-        for (ParsableLine line : lines) {
-            if (line.isInclude()) {
-                strLine = line.getConfigurationLine().getProcessedLine();
-
-                if (!isCommentMatch(strLine) && isDirectiveMatch(strLine, directiveType)) {
-                    if (matchesPattern.matcher(strLine).find()) {
-                        return line.getConfigurationLine().getFile();
-                    }
-                }
-            }
-        }
-
-        return null;
+        return getConfigurationSnapshot().getDirectiveFile(directiveType, matchesPattern, includeVHosts);
     }
 
     /**
@@ -291,37 +231,11 @@ public class DirectiveParser extends Parser {
      */
     public boolean removeDirectiveFromFile(String directiveType, String file, Pattern matchesPattern, boolean commentOut, boolean includeVHosts) throws Exception {
 
-        StringBuffer fileText = new StringBuffer();
-
-        boolean changed = false;
+        ConfigurationTransaction transaction = beginTransaction();
 
-        ParsableLine lines[] = getFileParsableLines(file, includeVHosts);
-
-        String strLine = "", cmpLine = "";
-        for (ParsableLine line : lines) {
-            strLine = line.getConfigurationLine().getLine();
-            cmpLine = line.getConfigurationLine().getProcessedLine();
-
-            if (!isCommentMatch(cmpLine) && isDirectiveMatch(cmpLine, directiveType) && line.isInclude()) {
-
-                if (matchesPattern.matcher(cmpLine).find()) {
-
-                    changed = true;
-
-                    if (commentOut) {
-                        fileText.append("#" + strLine + Const.newLine);
-                    }
-                } else {
-                    fileText.append(strLine + Const.newLine);
-                }
-            } else {
-                fileText.append(strLine + Const.newLine);
-            }
-        }
+        boolean changed = transaction.removeDirectiveFromFile(directiveType, file, matchesPattern, commentOut, includeVHosts);
 
-        if (changed) {
-            Utils.writeStringBufferToFile(new File(file), fileText, Charset.forName("UTF-8"));
-        }
+        transaction.commit();
 
         return changed;
     }
@@ -345,45 +259,10 @@ public class DirectiveParser extends Parser {
      */
     public void setDirectiveInFile(String directiveType, String file, String insertValue, Pattern matchesPattern, boolean add, boolean includeVHosts) throws Exception {
 
-        StringBuffer fileText = new StringBuffer();
-
-        boolean changed = false;
-
-        ParsableLine lines[] = getFileParsableLines(file, includeVHosts);
-
-        String strLine = "", cmpLine = "";
-        for (ParsableLine line : lines) {
-            strLine = line.getConfigurationLine().getLine();
-            cmpLine = line.getConfigurationLine().getProcessedLine();
+        ConfigurationTransaction transaction = beginTransaction();
 
-            if (!isCommentMatch(cmpLine) && isDirectiveMatch(cmpLine, directiveType) && line.isInclude()) {
-
-                if (matchesPattern.matcher(cmpLine).find()) {
-
-                    changed = true;
-
-                    fileText.append(directiveType + " " + insertValue);
-                    fileText.append(Const.newLine);
-                } else {
-                    fileText.append(strLine + Const.newLine);
-                }
-            } else {
-                fileText.append(strLine + Const.newLine);
-            }
-        }
-
-        if (!changed && add) {
-
-            changed = true;
-
-            fileText.append(Const.newLine);
-            fileText.append(directiveType + " " + insertValue);
-            fileText.append(Const.newLine);
-        }
-
-        if (changed) {
-            Utils.writeStringBufferToFile(new File(file), fileText, Charset.forName("UTF-8"));
-        }
+        transaction.setDirectiveInFile(directiveType, file, insertValue, matchesPattern, add, includeVHosts);
 
+        transaction.commit();
     }
 }
@@ -111,10 +111,12 @@ public class Enclosure {
         
         int enclosureCount = 0;
         String line;
+        LexedLine lexedLine;
         for(int i=0; i<configurationLines.size(); i++) {
             line = configurationLines.get(i).getProcessedLine();
+            lexedLine = configurationLines.get(i).getLexedLine();
             
-            if(Parser.isEnclosureMatch(line) && !Parser.isVHostMatch(line) && i > 0) {
+            if(lexedLine.isEnclosureOpen() && !lexedLine.isVHostOpen() && i > 0) {
                 enclosure.append(enclosures.get(enclosureCount).toString());
                 enclosureCount ++;
             } else {
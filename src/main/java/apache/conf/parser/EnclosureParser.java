@@ -1,11 +1,8 @@
 package apache.conf.parser;
 
-import apache.conf.global.Const;
-import apache.conf.global.Utils;
 import apache.conf.modules.SharedModule;
 import apache.conf.modules.StaticModule;
 
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Stack;
 import java.util.regex.Pattern;
@@ -45,11 +42,7 @@ public class EnclosureParser extends Parser {
      * @return an array with the directive parts
      */
     public static String[] extractEnclosureToParts(String line) {
-        String strLine = line.replaceAll(">|<", "");
-        strLine = strLine.replaceAll(Const.replaceCommaSpacesRegex, ",");
-        strLine = strLine.replaceAll(Const.replaceSpacesInValuesRegex, "@@");
-        
-        return strLine.split("@@");
+        return ValueTokenizer.tokenizeEnclosure(line);
     }
     
     /**
@@ -68,45 +61,17 @@ public class EnclosureParser extends Parser {
      * @throws Exception
      */
     public Enclosure[] getEnclosure(String enclosureType, boolean includeVHosts) throws Exception {
-
-        ArrayList<Enclosure> enclosures = new ArrayList<Enclosure>();
-
-        ParsableLine lines[] = getConfigurationParsableLines(includeVHosts);
-
-        String strLine;
-        ArrayList<ParsableLine> parsableLines = new ArrayList<ParsableLine>();
-
-        Stack enclosureStack = new Stack();
-        for (ParsableLine line : lines) {
-            if (line.isInclude()) {
-                strLine = line.getConfigurationLine().getProcessedLine();
-
-                if (!isCommentMatch(strLine) && isEnclosureTypeMatch(strLine, enclosureType)) {
-                    enclosureStack.push(strLine);
-                }
-                if (!enclosureStack.isEmpty()) {
-                    if (!isCommentMatch(strLine) && !strLine.equals("")) {
-                        parsableLines.add(line);
-                    }
-
-                    if (!isCommentMatch(strLine) && isCloseEnclosureTypeMatch(strLine, enclosureType)) {
-                        enclosureStack.pop();
-
-                        if (enclosureStack.isEmpty()) {
-                            enclosures.add(parseEnclosure(parsableLines.toArray(new ParsableLine[parsableLines.size()]), includeVHosts));
-                            parsableLines.clear();
-                        }
-                    }
-                }
-            }
-        }
-
-        return enclosures.toArray(new Enclosure[enclosures.size()]);
+        return getConfigurationSnapshot().getEnclosure(enclosureType, includeVHosts);
     }
 
     public Enclosure parseEnclosure(ParsableLine[] parsableLines, boolean includeVHosts) throws Exception {
+        return createEnclosure(parsableLines);
+    }
+
+    static Enclosure createEnclosure(ParsableLine[] parsableLines) {
 
         String strLine;
+        LexedLine lexedLine;
         Enclosure enclosure = new Enclosure();
 
         Stack enclosureStack = new Stack();
@@ -117,6 +82,7 @@ public class EnclosureParser extends Parser {
             iter++;
 
             strLine = parsableLine.getConfigurationLine().getProcessedLine();
+            lexedLine = parsableLine.getConfigurationLine().getLexedLine();
 
             if(enclosureStack.isEmpty()) {
                 enclosure.addConfigurationLine(parsableLine.getConfigurationLine());
@@ -133,28 +99,24 @@ public class EnclosureParser extends Parser {
                 enclosure.setValue(enclosureValue.toString().trim());
                 
             } else {
-                if (!isCommentMatch(strLine) && isEnclosureMatch(strLine)) {
+                if (lexedLine.isEnclosureOpen()) {
                     enclosureStack.push(strLine);
                 }
                 if (!enclosureStack.isEmpty()) {
-                    if (!isCommentMatch(strLine)) {
+                    if (!lexedLine.isComment()) {
                         subParsableLines.add(parsableLine);
                     }
 
-                    if (!isCommentMatch(strLine) && isCloseEnclosureMatch(strLine)) {
+                    if (lexedLine.isEnclosureClose()) {
                         enclosureStack.pop();
 
                         if (enclosureStack.isEmpty()) {
-                            enclosure.addEnclosure(parseEnclosure(subParsableLines.toArray(new ParsableLine[subParsableLines.size()]), includeVHosts));
+                            enclosure.addEnclosure(createEnclosure(subParsableLines.toArray(new ParsableLine[subParsableLines.size()])));
                             subParsableLines.clear();
                         }
                     }
-                } else if (!isCommentMatch(strLine) && !isCloseEnclosureMatch(strLine)) {
-                    
-                    strLine = strLine.replaceAll(Const.replaceCommaSpacesRegex, ",");
-                    strLine = strLine.replaceAll(Const.replaceSpacesInValuesRegex, "@@");
-                    
-                    String directiveValues[] = strLine.split("@@");
+                } else if (!lexedLine.isComment() && !lexedLine.isEnclosureClose()) {
+                    String directiveValues[] = ValueTokenizer.tokenize(strLine);
                     
                     Directive directive = new Directive(directiveValues[0]);
                     for (int j = 1; j < directiveValues.length; j++) {
@@ -184,53 +146,37 @@ public class EnclosureParser extends Parser {
      */
     public void deleteEnclosure(String enclosureType, Pattern matchesValuePattern, boolean commentOut, boolean includeVHosts) throws Exception {
 
-        String includedFiles[] = getActiveConfFileList();
-
-        boolean changed = false;
-        StringBuffer fileText = new StringBuffer();
+        ConfigurationTransaction transaction = beginTransaction();
 
-        ParsableLine lines[];
+        transaction.deleteEnclosure(enclosureType, matchesValuePattern, commentOut, includeVHosts);
 
-        for (String file : includedFiles) {
-
-            fileText.delete(0, fileText.length());
-
-            changed = false;
-
-            lines = getFileParsableLines(file, includeVHosts);
-
-            Stack enclosureStack = new Stack();
-            String strLine = "", cmpLine = "";
-            for (ParsableLine line : lines) {
-                strLine = line.getConfigurationLine().getLine();
-                cmpLine = line.getConfigurationLine().getProcessedLine();
-
-                if (!isCommentMatch(cmpLine) && isEnclosureTypeMatch(cmpLine, enclosureType) && line.isInclude()) {
+        transaction.commit();
+    }
 
-                    if (matchesValuePattern.matcher(cmpLine).find()) {
+    /**
+     * Replaces all Enclosures in the active configuration that match the enclosure type and enclosure value pattern with the enclosure text. Only the files that contain a matching enclosure are
+     * rewritten.
+     * 
+     * @param enclosureType
+     *            The enclosure name. This is not case sensitive.
+     * @param matchesValuePattern
+     *            The pattern to match the enclosure value against
+     * @param enclosureText
+     *            The text to replace each matching enclosure with. This may contain several lines eg. the result of {@link Enclosure#toString()}.
+     * @param includeVHosts
+     *            boolean indicating whether to search for enclosures inside virtual hosts
+     * @return a boolean indicating if an enclosure was found.
+     * @throws Exception
+     */
+    public boolean replaceEnclosure(String enclosureType, Pattern matchesValuePattern, String enclosureText, boolean includeVHosts) throws Exception {
 
-                        enclosureStack.push(cmpLine);
-                        changed = true;
-                    }
-                }
+        ConfigurationTransaction transaction = beginTransaction();
 
-                if (!enclosureStack.isEmpty()) {
-                    if (!isCommentMatch(cmpLine) && isCloseEnclosureTypeMatch(cmpLine, enclosureType)) {
-                        enclosureStack.pop();
-                    }
+        boolean found = transaction.replaceEnclosure(enclosureType, matchesValuePattern, enclosureText, includeVHosts);
 
-                    if (!cmpLine.startsWith("#") && commentOut) {
-                        fileText.append("#" + strLine + Const.newLine);
-                    }
-                } else {
-                    fileText.append(strLine + Const.newLine);
-                }
-            }
+        transaction.commit();
 
-            if (changed) {
-                Utils.writeStringBufferToFile(new File(file), fileText, Charset.forName("UTF-8"));
-            }
-        }
+        return found;
     }
 
 }
@@ -0,0 +1,120 @@
+package apache.conf.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <p>
+ * Class used to record the state of a configuration file or include directory at the time it was read.
+ * </p>
+ * <p>
+ * A fingerprint is current as long as the last modified time and the length of the path have not changed. Directories are fingerprinted so that files added to or removed from an included directory
+ * are detected. Files also record a hash of their content so that a file which was touched without being changed does not need to be parsed again.
+ * </p>
+ */
+class FileFingerprint {
+
+    private final String path;
+    private final long lastModified;
+    private final long length;
+    private final String contentHash;
+
+    FileFingerprint(java.io.File file) {
+        this(file.getPath(), file.lastModified(), file.length(), null);
+    }
+
+    FileFingerprint(String path) {
+        this(path, new java.io.File(path).lastModified(), new java.io.File(path).length(), null);
+    }
+
+    FileFingerprint(String path, long lastModified, long length, String contentHash) {
+        this.path = path;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @param content
+     *            the content that was read from the file.
+     * @return a copy of this fingerprint with the hash of the content.
+     */
+    FileFingerprint withContent(ByteBuffer content) {
+        return new FileFingerprint(path, lastModified, length, hash(content));
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    long getLastModified() {
+        return lastModified;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * @return the hash of the file content or null if this is a directory fingerprint.
+     */
+    String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @param fingerprint
+     *            a fingerprint of the same path.
+     * @return true if the last modified time and length are the same.
+     */
+    boolean isSameStat(FileFingerprint fingerprint) {
+        return fingerprint.lastModified == lastModified && fingerprint.length == length;
+    }
+
+    /**
+     * @return true if the path has not changed since the fingerprint was taken.
+     */
+    boolean isCurrent() {
+        return isSameStat(new FileFingerprint(path));
+    }
+
+    /**
+     * @param verifyContent
+     *            true to also compare the hash of the file content. This reads the file.
+     * @return true if the path has not changed since the fingerprint was taken.
+     * @throws IOException
+     */
+    boolean isCurrent(boolean verifyContent) throws IOException {
+        if (!isCurrent()) {
+            return false;
+        }
+
+        if (!verifyContent || contentHash == null) {
+            return true;
+        }
+
+        return contentHash.equals(hash(ConfigurationFileReader.read(path)));
+    }
+
+    static String hash(ByteBuffer content) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        digest.update(content.duplicate());
+        byte hash[] = digest.digest();
+
+        StringBuffer hex = new StringBuffer(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+}
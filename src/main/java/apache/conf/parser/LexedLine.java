@@ -0,0 +1,181 @@
+package apache.conf.parser;
+
+/**
+ * <p>
+ * Class used to model the classification of a single configuration line. A lexed line is produced by the {@link LineLexer} in one scan over the line and records the line type, the name of the
+ * directive or enclosure and the span of its arguments.
+ * </p>
+ * <p>
+ * Some example lines are as follows:<br/>
+ * "Listen 80 http" - The type is DIRECTIVE, the name is "Listen" and the arguments are "80 http"<br/>
+ * "&lt;VirtualHost *:80&gt;" - The type is ENCLOSURE_OPEN, the name is "VirtualHost" and the arguments are "*:80"<br/>
+ * "&lt;/VirtualHost&gt;" - The type is ENCLOSURE_CLOSE and the name is "VirtualHost"<br/>
+ * "Include conf/extra/*.conf" - The type is INCLUDE, the name is "Include" and the arguments are "conf/extra/*.conf"<br/>
+ * </p>
+ */
+public class LexedLine {
+
+    public enum Type {
+        BLANK, COMMENT, DIRECTIVE, INCLUDE, ENCLOSURE_OPEN, ENCLOSURE_CLOSE
+    }
+
+    private static final String ifModuleEnclosure = "IfModule";
+    private static final String virtualHostEnclosure = "VirtualHost";
+
+    private final String line;
+    private final Type type;
+    private final int nameStart;
+    private final int nameEnd;
+    private final int argumentStart;
+    private final int argumentEnd;
+
+    LexedLine(String line, Type type, int nameStart, int nameEnd, int argumentStart, int argumentEnd) {
+        this.line = line;
+        this.type = type;
+        this.nameStart = nameStart;
+        this.nameEnd = nameEnd;
+        this.argumentStart = argumentStart;
+        this.argumentEnd = argumentEnd;
+    }
+
+    /**
+     * @return the line that was lexed
+     */
+    public String getLine() {
+        return line;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the directive or enclosure name as it appears in the line, or null for blank lines and comments.
+     */
+    public String getName() {
+        if (nameStart == nameEnd) {
+            return null;
+        }
+
+        return line.substring(nameStart, nameEnd);
+    }
+
+    /**
+     * @return the arguments following the directive or enclosure name, or an empty String if there are none.
+     */
+    public String getArguments() {
+        return line.substring(argumentStart, argumentEnd);
+    }
+
+    public int getNameStart() {
+        return nameStart;
+    }
+
+    public int getNameEnd() {
+        return nameEnd;
+    }
+
+    public int getArgumentStart() {
+        return argumentStart;
+    }
+
+    public int getArgumentEnd() {
+        return argumentEnd;
+    }
+
+    public boolean hasArguments() {
+        return argumentStart < argumentEnd;
+    }
+
+    public boolean isBlank() {
+        return type == Type.BLANK;
+    }
+
+    public boolean isComment() {
+        return type == Type.COMMENT;
+    }
+
+    /**
+     * @return true if the line is a directive. Include lines are also directives.
+     */
+    public boolean isDirective() {
+        return type == Type.DIRECTIVE || type == Type.INCLUDE;
+    }
+
+    public boolean isInclude() {
+        return type == Type.INCLUDE;
+    }
+
+    public boolean isEnclosureOpen() {
+        return type == Type.ENCLOSURE_OPEN;
+    }
+
+    public boolean isEnclosureClose() {
+        return type == Type.ENCLOSURE_CLOSE;
+    }
+
+    /**
+     * Checks if the name of the line matches the passed in name. The name is compared without any String allocation.
+     *
+     * @param name
+     *            the name to compare against. This is not case sensitive.
+     * @return a boolean indicating if the name matches.
+     */
+    public boolean isName(String name) {
+        int length = nameEnd - nameStart;
+        return length > 0 && length == name.length() && line.regionMatches(true, nameStart, name, 0, length);
+    }
+
+    /**
+     * @param directiveType
+     *            the type of the directive to match against. This is not case sensitive.
+     * @return true if the line is a directive with the specified type and at least one argument.
+     */
+    public boolean isDirective(String directiveType) {
+        return isDirective() && hasArguments() && isName(directiveType);
+    }
+
+    /**
+     * @param enclosureType
+     *            the name of the enclosure to match against. This is not case sensitive.
+     * @return true if the line opens an enclosure with the specified type.
+     */
+    public boolean isEnclosureOpen(String enclosureType) {
+        return type == Type.ENCLOSURE_OPEN && isName(enclosureType);
+    }
+
+    /**
+     * @param enclosureType
+     *            the name of the enclosure to match against. This is not case sensitive.
+     * @return true if the line closes an enclosure with the specified type.
+     */
+    public boolean isEnclosureClose(String enclosureType) {
+        return type == Type.ENCLOSURE_CLOSE && isName(enclosureType);
+    }
+
+    /**
+     * @return true if the line opens an IfModule. This includes negated IfModules.
+     */
+    public boolean isIfModuleOpen() {
+        return isEnclosureOpen(ifModuleEnclosure);
+    }
+
+    /**
+     * @return true if the line opens a negated IfModule eg. &lt;IfModule !mpm_netware_module&gt;
+     */
+    public boolean isIfModuleNegateOpen() {
+        return isIfModuleOpen() && hasArguments() && line.charAt(argumentStart) == '!';
+    }
+
+    public boolean isIfModuleClose() {
+        return isEnclosureClose(ifModuleEnclosure);
+    }
+
+    public boolean isVHostOpen() {
+        return isEnclosureOpen(virtualHostEnclosure);
+    }
+
+    public boolean isVHostClose() {
+        return isEnclosureClose(virtualHostEnclosure);
+    }
+}
@@ -0,0 +1,147 @@
+package apache.conf.parser;
+
+import apache.conf.parser.LexedLine.Type;
+
+/**
+ * <p>
+ * This class is used to classify configuration lines. A line is classified as a blank line, comment, directive, include, enclosure open or enclosure close in a single scan over its characters. No
+ * regular expressions are used.
+ * </p>
+ * <p>
+ * Leading and trailing whitespace is ignored so both raw and processed configuration lines can be lexed.
+ * </p>
+ */
+public final class LineLexer {
+
+    private static final String includeDirective = "Include";
+    private static final String includeOptionalDirective = "IncludeOptional";
+
+    private LineLexer() {
+    }
+
+    /**
+     * Classifies a line from the Apache configuration.
+     *
+     * @param line
+     *            the line to classify.
+     * @return a LexedLine with the line type, name and argument span.
+     */
+    public static LexedLine lex(String line) {
+        int length = line.length();
+
+        int start = skipWhitespace(line, 0, length);
+        if (start == length) {
+            return new LexedLine(line, Type.BLANK, start, start, start, start);
+        }
+
+        int end = length;
+        while (end > start && isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+
+        char first = line.charAt(start);
+        if (first == '#') {
+            int commentStart = skipWhitespace(line, start + 1, end);
+            return new LexedLine(line, Type.COMMENT, start, start, commentStart, end);
+        }
+
+        if (first == '<') {
+            int pos = skipWhitespace(line, start + 1, end);
+
+            boolean close = (pos < end && line.charAt(pos) == '/');
+            if (close) {
+                pos = skipWhitespace(line, pos + 1, end);
+            }
+
+            int nameStart = pos;
+            while (pos < end && !isWhitespace(line.charAt(pos)) && line.charAt(pos) != '>') {
+                pos++;
+            }
+            int nameEnd = pos;
+
+            int bracket = line.lastIndexOf('>', end - 1);
+            if (nameEnd > nameStart && bracket >= nameEnd) {
+                int argumentStart = skipWhitespace(line, nameEnd, bracket);
+                int argumentEnd = bracket;
+                while (argumentEnd > argumentStart && isWhitespace(line.charAt(argumentEnd - 1))) {
+                    argumentEnd--;
+                }
+
+                return new LexedLine(line, (close ? Type.ENCLOSURE_CLOSE : Type.ENCLOSURE_OPEN), nameStart, nameEnd, argumentStart, argumentEnd);
+            }
+        }
+
+        int pos = start;
+        while (pos < end && !isWhitespace(line.charAt(pos))) {
+            pos++;
+        }
+
+        LexedLine directive = new LexedLine(line, Type.DIRECTIVE, start, pos, skipWhitespace(line, pos, end), end);
+        if (directive.isName(includeDirective) || directive.isName(includeOptionalDirective)) {
+            return new LexedLine(line, Type.INCLUDE, start, pos, directive.getArgumentStart(), end);
+        }
+
+        return directive;
+    }
+
+    /**
+     * Trims a line and replaces every run of whitespace inside of it with a single space, in one scan over its characters.
+     *
+     * @param line
+     *            the line to collapse.
+     * @return the collapsed line, or the line itself if it has no whitespace to collapse.
+     */
+    static String collapseWhitespace(String line) {
+        // the same characters as String.trim
+        int start = 0, end = line.length();
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        StringBuilder collapsed = null;
+        for (int pos = start; pos < end; pos++) {
+            char c = line.charAt(pos);
+            if (!isWhitespace(c)) {
+                if (collapsed != null) {
+                    collapsed.append(c);
+                }
+                continue;
+            }
+
+            int next = pos + 1;
+            while (next < end && isWhitespace(line.charAt(next))) {
+                next++;
+            }
+
+            // a single space is kept as it is, the line is only copied once something has to change
+            if (collapsed == null && (c != ' ' || next > pos + 1)) {
+                collapsed = new StringBuilder(end - start).append(line, start, pos);
+            }
+            if (collapsed != null) {
+                collapsed.append(' ');
+            }
+            pos = next - 1;
+        }
+
+        if (collapsed != null) {
+            return collapsed.toString();
+        }
+
+        return (start == 0 && end == line.length() ? line : line.substring(start, end));
+    }
+
+    private static int skipWhitespace(String line, int pos, int end) {
+        while (pos < end && isWhitespace(line.charAt(pos))) {
+            pos++;
+        }
+
+        return pos;
+    }
+
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+}
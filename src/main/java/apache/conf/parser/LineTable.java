@@ -0,0 +1,267 @@
+package apache.conf.parser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Class used to store the configuration lines of one configuration file in columns.
+ * </p>
+ * <p>
+ * Every value of a line is kept in a primitive array indexed by the row of the line. The text of all lines is kept in one shared String: each row points at the range of its unmodified line and at
+ * the range of its processed line. A processed line is usually its unmodified line without the surrounding whitespace, in which case it points into the unmodified line and takes no extra space.
+ * The lexer classification is kept as the line type and the spans of the name and arguments within the processed line.
+ * </p>
+ * <p>
+ * Callers use {@link #get(int)} to get a {@link ConfigurationLine} view of a row. Views are created on demand and are not kept by the table. A table is never modified after it is built.
+ * </p>
+ */
+final class LineTable {
+
+    private static final LexedLine.Type types[] = LexedLine.Type.values();
+
+    private final String file;
+    private final String text;
+    private final int size;
+    private final int lineStart[];
+    private final int lineEnd[];
+    private final int processedStart[];
+    private final int processedEnd[];
+    private final int lineOfStart[];
+    private final int lineOfEnd[];
+    private final int startOffset[];
+    private final int endOffset[];
+    private final byte type[];
+    private final int nameStart[];
+    private final int nameEnd[];
+    private final int argumentStart[];
+    private final int argumentEnd[];
+
+    private LineTable(Builder builder) {
+        this.file = builder.file;
+        this.text = builder.text.toString();
+        this.size = builder.size;
+        this.lineStart = Arrays.copyOf(builder.lineStart, size);
+        this.lineEnd = Arrays.copyOf(builder.lineEnd, size);
+        this.processedStart = Arrays.copyOf(builder.processedStart, size);
+        this.processedEnd = Arrays.copyOf(builder.processedEnd, size);
+        this.lineOfStart = Arrays.copyOf(builder.lineOfStart, size);
+        this.lineOfEnd = Arrays.copyOf(builder.lineOfEnd, size);
+        this.startOffset = Arrays.copyOf(builder.startOffset, size);
+        this.endOffset = Arrays.copyOf(builder.endOffset, size);
+        this.nameStart = Arrays.copyOf(builder.nameStart, size);
+        this.nameEnd = Arrays.copyOf(builder.nameEnd, size);
+        this.argumentStart = Arrays.copyOf(builder.argumentStart, size);
+        this.argumentEnd = Arrays.copyOf(builder.argumentEnd, size);
+        this.type = Arrays.copyOf(builder.type, size);
+    }
+
+    private LineTable(ConfigurationSnapshotStore.Input input) {
+        this.file = input.readString();
+        this.text = input.readString();
+        this.lineStart = input.readInts();
+        this.size = lineStart.length;
+        this.lineEnd = input.readInts();
+        this.processedStart = input.readInts();
+        this.processedEnd = input.readInts();
+        this.lineOfStart = input.readInts();
+        this.lineOfEnd = input.readInts();
+        this.startOffset = input.readInts();
+        this.endOffset = input.readInts();
+        this.nameStart = input.readInts();
+        this.nameEnd = input.readInts();
+        this.argumentStart = input.readInts();
+        this.argumentEnd = input.readInts();
+        this.type = input.readByteArray();
+    }
+
+    /**
+     * Writes the columns of the table so they can be read with {@link #read(ConfigurationSnapshotStore.Input)}.
+     */
+    void write(ConfigurationSnapshotStore.Output output) throws IOException {
+        output.writeString(file);
+        output.writeString(text);
+        output.writeInts(lineStart);
+        output.writeInts(lineEnd);
+        output.writeInts(processedStart);
+        output.writeInts(processedEnd);
+        output.writeInts(lineOfStart);
+        output.writeInts(lineOfEnd);
+        output.writeInts(startOffset);
+        output.writeInts(endOffset);
+        output.writeInts(nameStart);
+        output.writeInts(nameEnd);
+        output.writeInts(argumentStart);
+        output.writeInts(argumentEnd);
+        output.writeByteArray(type);
+    }
+
+    static LineTable read(ConfigurationSnapshotStore.Input input) {
+        return new LineTable(input);
+    }
+
+    /**
+     * @return the file that the lines were read from.
+     */
+    String getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of lines in the table.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param row
+     *            the row of the line.
+     * @return a view of the line.
+     */
+    ConfigurationLine get(int row) {
+        return new ConfigurationLine(this, row);
+    }
+
+    String getLine(int row) {
+        return text.substring(lineStart[row], lineEnd[row]);
+    }
+
+    String getProcessedLine(int row) {
+        return text.substring(processedStart[row], processedEnd[row]);
+    }
+
+    LexedLine getLexedLine(int row) {
+        return new LexedLine(getProcessedLine(row), types[type[row]], nameStart[row], nameEnd[row], argumentStart[row], argumentEnd[row]);
+    }
+
+    /**
+     * @return true if the processed line contains a ${...} reference that a Define may replace.
+     */
+    boolean hasReference(int row) {
+        for (int i = processedStart[row]; i < processedEnd[row] - 1; i++) {
+            if (text.charAt(i) == '$' && text.charAt(i + 1) == '{') {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    boolean isComment(int row) {
+        return types[type[row]] == LexedLine.Type.COMMENT;
+    }
+
+    int getLineOfStart(int row) {
+        return lineOfStart[row];
+    }
+
+    int getLineOfEnd(int row) {
+        return lineOfEnd[row];
+    }
+
+    int getStartOffset(int row) {
+        return startOffset[row];
+    }
+
+    int getEndOffset(int row) {
+        return endOffset[row];
+    }
+
+    /**
+     * Class used to add the lines of a file to a new table in the order that they appear in the file.
+     */
+    static class Builder {
+        private final String file;
+        private final StringBuilder text = new StringBuilder();
+        private int size = 0;
+        private int lineStart[] = new int[16];
+        private int lineEnd[] = new int[16];
+        private int processedStart[] = new int[16];
+        private int processedEnd[] = new int[16];
+        private int lineOfStart[] = new int[16];
+        private int lineOfEnd[] = new int[16];
+        private int startOffset[] = new int[16];
+        private int endOffset[] = new int[16];
+        private byte type[] = new byte[16];
+        private int nameStart[] = new int[16];
+        private int nameEnd[] = new int[16];
+        private int argumentStart[] = new int[16];
+        private int argumentEnd[] = new int[16];
+
+        Builder(String file) {
+            this.file = file;
+        }
+
+        /**
+         * @param line
+         *            the unmodified line.
+         * @param lexedLine
+         *            the lexed processed line.
+         * @param lineOfStart
+         *            the line number where the line starts.
+         * @param lineOfEnd
+         *            the line number where the line ends.
+         * @param startOffset
+         *            the offset of the first byte of the line in the file.
+         * @param endOffset
+         *            the offset after the last byte of the line ending in the file.
+         */
+        Builder add(String line, LexedLine lexedLine, int lineOfStart, int lineOfEnd, int startOffset, int endOffset) {
+            if (size == type.length) {
+                grow();
+            }
+
+            int start = text.length();
+            text.append(line);
+            this.lineStart[size] = start;
+            this.lineEnd[size] = text.length();
+
+            String processedLine = lexedLine.getLine();
+            int processedIndex = line.indexOf(processedLine);
+            if (processedIndex >= 0) {
+                this.processedStart[size] = start + processedIndex;
+            } else {
+                this.processedStart[size] = text.length();
+                text.append(processedLine);
+            }
+            this.processedEnd[size] = this.processedStart[size] + processedLine.length();
+
+            this.lineOfStart[size] = lineOfStart;
+            this.lineOfEnd[size] = lineOfEnd;
+            this.startOffset[size] = startOffset;
+            this.endOffset[size] = endOffset;
+            this.type[size] = (byte) lexedLine.getType().ordinal();
+            this.nameStart[size] = lexedLine.getNameStart();
+            this.nameEnd[size] = lexedLine.getNameEnd();
+            this.argumentStart[size] = lexedLine.getArgumentStart();
+            this.argumentEnd[size] = lexedLine.getArgumentEnd();
+
+            size++;
+
+            return this;
+        }
+
+        LineTable build() {
+            return new LineTable(this);
+        }
+
+        private void grow() {
+            int capacity = type.length * 2;
+
+            lineStart = Arrays.copyOf(lineStart, capacity);
+            lineEnd = Arrays.copyOf(lineEnd, capacity);
+            processedStart = Arrays.copyOf(processedStart, capacity);
+            processedEnd = Arrays.copyOf(processedEnd, capacity);
+            lineOfStart = Arrays.copyOf(lineOfStart, capacity);
+            lineOfEnd = Arrays.copyOf(lineOfEnd, capacity);
+            startOffset = Arrays.copyOf(startOffset, capacity);
+            endOffset = Arrays.copyOf(endOffset, capacity);
+            nameStart = Arrays.copyOf(nameStart, capacity);
+            nameEnd = Arrays.copyOf(nameEnd, capacity);
+            argumentStart = Arrays.copyOf(argumentStart, capacity);
+            argumentEnd = Arrays.copyOf(argumentEnd, capacity);
+            type = Arrays.copyOf(type, capacity);
+        }
+    }
+}
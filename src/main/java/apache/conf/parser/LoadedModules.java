@@ -0,0 +1,112 @@
+package apache.conf.parser;
+
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import apache.conf.modules.Module;
+
+/**
+ * <p>
+ * Class used to answer whether an IfModule argument names a loaded Apache module.
+ * </p>
+ * <p>
+ * The module names are normalized once into a set of keys. An IfModule argument is accepted in any of the forms that Apache accepts, so "ssl_module", "mod_ssl.c" and "ssl" all resolve to the key
+ * "ssl". MPM modules are also matched by their source file, so "prefork.c" resolves to "mpm_prefork_module".
+ * </p>
+ * <p>
+ * The result for each distinct IfModule argument is remembered so repeated IfModule lines cost a single lookup.
+ * </p>
+ */
+class LoadedModules {
+
+    private static final String moduleSuffix = "_module";
+    private static final String sourceSuffix = ".c";
+    private static final String sourcePrefix = "mod_";
+    private static final String mpmPrefix = "mpm_";
+
+    private final HashSet<String> keys = new HashSet<String>();
+    private final ConcurrentHashMap<String, Boolean> resolved = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * @param modules
+     *            lists of loaded modules. Null lists are ignored.
+     */
+    LoadedModules(Module[]... modules) {
+        for (Module list[] : modules) {
+            if (list == null) {
+                continue;
+            }
+
+            for (Module module : list) {
+                add(module.getName());
+            }
+        }
+    }
+
+    /**
+     * Marks a module as loaded.
+     *
+     * @param moduleName
+     *            the module identifier eg. "ssl_module".
+     */
+    void add(String moduleName) {
+        String key = normalize(moduleName);
+        keys.add(key);
+
+        if (key.startsWith(mpmPrefix)) {
+            keys.add(key.substring(mpmPrefix.length()));
+        }
+
+        resolved.clear();
+    }
+
+    /**
+     * @param ifModuleArgument
+     *            the argument of an IfModule enclosure eg. "ssl_module", "!mod_ssl.c" or "\"ssl\"". A leading negation is ignored.
+     * @return true if the argument names a loaded module.
+     */
+    boolean isLoaded(String ifModuleArgument) {
+        Boolean loaded = resolved.get(ifModuleArgument);
+        if (loaded == null) {
+            loaded = Boolean.valueOf(keys.contains(normalize(ifModuleArgument)));
+            resolved.put(ifModuleArgument, loaded);
+        }
+
+        return loaded.booleanValue();
+    }
+
+    /**
+     * @param name
+     *            a module identifier, module source file or IfModule argument.
+     * @return the name without negation, quotes, the "mod_" prefix and the "_module" or ".c" suffix.
+     */
+    static String normalize(String name) {
+        int start = 0, end = name.length();
+
+        if (start < end && name.charAt(start) == '!') {
+            start++;
+        }
+        while (start < end && Character.isWhitespace(name.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(name.charAt(end - 1))) {
+            end--;
+        }
+        if (end - start >= 2 && (name.charAt(start) == '"' || name.charAt(start) == '\'') && name.charAt(end - 1) == name.charAt(start)) {
+            start++;
+            end--;
+        }
+
+        if (name.regionMatches(end - moduleSuffix.length(), moduleSuffix, 0, moduleSuffix.length()) && end - moduleSuffix.length() > start) {
+            end -= moduleSuffix.length();
+        } else if (name.regionMatches(end - sourceSuffix.length(), sourceSuffix, 0, sourceSuffix.length()) && end - sourceSuffix.length() > start) {
+            end -= sourceSuffix.length();
+        }
+
+        if (name.startsWith(sourcePrefix, start) && end - sourcePrefix.length() > start) {
+            start += sourcePrefix.length();
+        }
+
+        return name.substring(start, end);
+    }
+}
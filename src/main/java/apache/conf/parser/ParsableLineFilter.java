@@ -0,0 +1,98 @@
+package apache.conf.parser;
+
+import java.util.Stack;
+
+/**
+ * <p>
+ * Class used to decide whether configuration lines are parsable, one line at a time in the order that they appear in the Apache configuration.
+ * </p>
+ * <p>
+ * A line is not parsable if it is inside of an IfModule statement whose module is not loaded, or inside of a VirtualHost when Virtual Hosts are excluded.
+ * </p>
+ */
+class ParsableLineFilter {
+
+    private final LoadedModules loadedModules;
+    private final boolean includeVHosts;
+
+    private final Stack<String> ifModuleStack = new Stack<String>();
+    private final Stack<String> virtualHostStack = new Stack<String>();
+
+    /**
+     * @param loadedModules
+     *            the loaded modules used to evaluate IfModule statements.
+     * @param includeVHosts
+     *            boolean indicating whether lines in Virtual Hosts are parsable.
+     */
+    ParsableLineFilter(LoadedModules loadedModules, boolean includeVHosts) {
+        this.loadedModules = loadedModules;
+        this.includeVHosts = includeVHosts;
+    }
+
+    /**
+     * @param configurationLine
+     *            the next configuration line.
+     * @return the parsable line for the configuration line.
+     */
+    ParsableLine filter(ConfigurationLine configurationLine) {
+        String cmpLine = configurationLine.getProcessedLine();
+        LexedLine lexedLine = configurationLine.getLexedLine();
+        boolean isComment = configurationLine.isComment();
+
+        /**
+         * Parse IfModule statements to see if we should add the directives
+         * 
+         * Two types of IfModules <IfModule mpm_prefork_module> <IfModule mod_ssl.c>
+         * 
+         */
+        if (!isComment) {
+
+            if (lexedLine.isIfModuleNegateOpen()) {
+                if (ifModuleStack.isEmpty()) {
+                    if (loadedModules.isLoaded(lexedLine.getArguments())) {
+                        ifModuleStack.push(cmpLine);
+                    }
+                } else {
+                    // we have found a nested iFModule iterate the counter
+                    ifModuleStack.push(cmpLine);
+                }
+            } else if (lexedLine.isIfModuleOpen()) {
+                // Check if were already in a module that isn't loaded
+                if (ifModuleStack.isEmpty()) {
+                    if (!loadedModules.isLoaded(lexedLine.getArguments())) {
+                        ifModuleStack.push(cmpLine);
+                    }
+                } else {
+                    // we have found a nested iFModule iterate the counter
+                    ifModuleStack.push(cmpLine);
+                }
+            }
+
+            /**
+             * Parse VirtualHost statements to see if we should add the directives
+             * 
+             * Example VirtualHost <VirtualHost *:80>
+             * 
+             */
+            if (!includeVHosts && lexedLine.isVHostOpen()) {
+                virtualHostStack.push(cmpLine);
+            }
+        }
+
+        if (!ifModuleStack.isEmpty()) {
+            if (!isComment && lexedLine.isIfModuleClose()) {
+                ifModuleStack.pop();
+            }
+
+            return new ParsableLine(configurationLine, false);
+        } else if (!virtualHostStack.isEmpty()) {
+            if (!isComment && lexedLine.isVHostClose()) {
+                virtualHostStack.pop();
+            }
+
+            return new ParsableLine(configurationLine, false);
+        }
+
+        return new ParsableLine(configurationLine, true);
+    }
+}
@@ -0,0 +1,212 @@
+package apache.conf.parser;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * The timings and counters of one parse of the whole configuration, passed to {@link ParserListener#parseCompleted(ParseStatistics)}.
+ * </p>
+ * <p>
+ * A parse has the following phases:<br/>
+ * <br/>
+ * Walk - following the includes from the root configuration file and collecting the configuration lines. This contains the read, Define and Mask phases.<br/>
+ * Read - reading and splitting the configuration files that have changed. Files read in parallel are summed, so this may be longer than the walk.<br/>
+ * Define - replacing ${...} references with Define values.<br/>
+ * Mask - deciding which lines are excluded by IfModule statements of modules that are not loaded and by VirtualHosts.<br/>
+ * Snapshot - building the enclosure trees and directive indexes of the snapshot.
+ * </p>
+ * <p>
+ * All timings are in nanoseconds.
+ * </p>
+ */
+public final class ParseStatistics {
+
+    private final long totalNanos;
+    private final long walkNanos;
+    private final long readNanos;
+    private final long defineNanos;
+    private final long maskNanos;
+    private final long snapshotNanos;
+    private final int files;
+    private final int filesRead;
+    private final long bytesRead;
+    private final int cacheHits;
+    private final int linesProcessed;
+    private final int linesReplaced;
+    private final int ifModuleExcludedLines;
+    private final int virtualHostExcludedLines;
+
+    private ParseStatistics(Recorder recorder, long totalNanos, int files, ParsableLine vHostParsableLines[], ParsableLine parsableLines[]) {
+        this.totalNanos = totalNanos;
+        this.walkNanos = recorder.walkNanos;
+        this.readNanos = recorder.readNanos.get();
+        this.defineNanos = recorder.defineNanos;
+        this.maskNanos = recorder.maskNanos;
+        this.snapshotNanos = recorder.snapshotNanos;
+        this.files = files;
+        this.filesRead = (int) recorder.filesRead.get();
+        this.bytesRead = recorder.bytesRead.get();
+        this.cacheHits = (int) recorder.cacheHits.get();
+        this.linesProcessed = vHostParsableLines.length;
+        this.linesReplaced = recorder.linesReplaced;
+
+        int ifModuleExcludedLines = 0, excludedLines = 0;
+        for (int i = 0; i < vHostParsableLines.length; i++) {
+            if (!vHostParsableLines[i].isInclude()) {
+                ifModuleExcludedLines++;
+            }
+            if (!parsableLines[i].isInclude()) {
+                excludedLines++;
+            }
+        }
+        this.ifModuleExcludedLines = ifModuleExcludedLines;
+        this.virtualHostExcludedLines = excludedLines - ifModuleExcludedLines;
+    }
+
+    /**
+     * @return the time taken by the whole parse.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getWalkNanos() {
+        return walkNanos;
+    }
+
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    public long getDefineNanos() {
+        return defineNanos;
+    }
+
+    public long getMaskNanos() {
+        return maskNanos;
+    }
+
+    public long getSnapshotNanos() {
+        return snapshotNanos;
+    }
+
+    /**
+     * @return the number of distinct configuration files in the active configuration.
+     */
+    public int getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the number of files read from disk.
+     */
+    public int getFilesRead() {
+        return filesRead;
+    }
+
+    /**
+     * @return the number of bytes read from disk.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the number of unchanged files whose cached lines were used.
+     */
+    public int getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * @return the number of configuration lines in the active configuration.
+     */
+    public int getLinesProcessed() {
+        return linesProcessed;
+    }
+
+    /**
+     * @return the number of lines whose ${...} references were replaced with Define values.
+     */
+    public int getLinesReplaced() {
+        return linesReplaced;
+    }
+
+    /**
+     * @return the number of lines inside IfModule statements of modules that are not loaded.
+     */
+    public int getIfModuleExcludedLines() {
+        return ifModuleExcludedLines;
+    }
+
+    /**
+     * @return the number of lines inside VirtualHosts that are not already excluded by an IfModule statement.
+     */
+    public int getVirtualHostExcludedLines() {
+        return virtualHostExcludedLines;
+    }
+
+    @Override
+    public String toString() {
+        return "total=" + toMillis(totalNanos) + "ms walk=" + toMillis(walkNanos) + "ms read=" + toMillis(readNanos) + "ms define=" + toMillis(defineNanos) + "ms mask=" + toMillis(maskNanos)
+                + "ms snapshot=" + toMillis(snapshotNanos) + "ms files=" + files + " filesRead=" + filesRead + " bytesRead=" + bytesRead + " cacheHits=" + cacheHits + " lines=" + linesProcessed + " replaced="
+                + linesReplaced + " ifModuleExcluded=" + ifModuleExcludedLines + " virtualHostExcluded=" + virtualHostExcludedLines;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Class used to collect the statistics while the configuration is parsed. The file events are forwarded to the listener of the parser. They may arrive on the include loader threads, the other
+     * counters are only updated by the parsing thread.
+     */
+    static class Recorder implements ParserListener {
+        private final ParserListener listener;
+        private final long start = System.nanoTime();
+
+        private final AtomicLong readNanos = new AtomicLong();
+        private final AtomicLong filesRead = new AtomicLong();
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong cacheHits = new AtomicLong();
+        long walkNanos;
+        long defineNanos;
+        long maskNanos;
+        long snapshotNanos;
+        int linesReplaced;
+
+        Recorder(ParserListener listener) {
+            this.listener = listener;
+        }
+
+        public void fileRead(String file, long bytes, long nanos) {
+            filesRead.incrementAndGet();
+            bytesRead.addAndGet(bytes);
+            readNanos.addAndGet(nanos);
+
+            listener.fileRead(file, bytes, nanos);
+        }
+
+        public void fileCacheHit(String file) {
+            cacheHits.incrementAndGet();
+
+            listener.fileCacheHit(file);
+        }
+
+        public void parseCompleted(ParseStatistics statistics) {
+            listener.parseCompleted(statistics);
+        }
+
+        public void editCommitted(String files[], long nanos) {
+            listener.editCommitted(files, nanos);
+        }
+
+        /**
+         * Builds the statistics of the parse and passes them to the listener.
+         */
+        void complete(ConfigurationSnapshot snapshot, ParsableLine vHostParsableLines[], ParsableLine parsableLines[]) {
+            parseCompleted(new ParseStatistics(this, System.nanoTime() - start, snapshot.getLineTables().length, vHostParsableLines, parsableLines));
+        }
+    }
+}
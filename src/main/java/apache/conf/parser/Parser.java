@@ -1,19 +1,23 @@
 package apache.conf.parser;
 
 import apache.conf.directives.Define;
+import apache.conf.global.AtomicFileWriter;
 import apache.conf.global.Const;
-import apache.conf.global.Utils;
 import apache.conf.modules.Module;
 import apache.conf.modules.SharedModule;
 import apache.conf.modules.StaticModule;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
+import apache.conf.parser.ConfigurationFileCache.FileSegment;
+
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.Stack;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.regex.Pattern;
 
 /**
@@ -23,11 +27,25 @@ import java.util.regex.Pattern;
  */
 public class Parser {
 
+    // a backslash and the whitespace around it at the end of each line of a multi-line directive
+    private static final Pattern continuationPattern = Pattern.compile("\\s+\\\\\\s*" + Const.newLine);
+
     protected String rootConfFile;
     protected String serverRoot;
     protected StaticModule staticModules[];
     protected SharedModule sharedModules[];
 
+    ConfigurationFileCache fileCache = new ConfigurationFileCache();
+    private boolean verifyContentHash = false;
+    private boolean resolveEnvironmentVariables = false;
+    private boolean syncWrites = true;
+    private ConfigurationSnapshot configurationSnapshot;
+    // only replaced once a parse has completed, a published set is never changed
+    private volatile LoadedModules loadedModules;
+    private ConfigurationSnapshotStore snapshotStore;
+    private boolean snapshotStoreChecked = false;
+    private ParserListener listener;
+
     /**
      * @param rootConfFile
      *            the Apache root configuration file.
@@ -51,6 +69,7 @@ public class Parser {
         this.serverRoot = serverRoot;
         this.staticModules = staticModules;
         this.sharedModules = sharedModules;
+        this.loadedModules = new LoadedModules(staticModules, sharedModules);
     }
 
     /**
@@ -61,8 +80,7 @@ public class Parser {
      * @return a boolean indicating if the line is a comment.
      */
     public static boolean isCommentMatch(String line) {
-        Pattern commentPattern = Pattern.compile("^\\s*#");
-        return commentPattern.matcher(line).find();
+        return LineLexer.lex(line).isComment();
     }
 
     /**
@@ -75,8 +93,7 @@ public class Parser {
      * @return a boolean indicating if the line mathes the directiveType
      */
     public static boolean isDirectiveMatch(String line, String directiveType) {
-        Pattern directivePattern = Pattern.compile("^\\s*\\b" + directiveType + "\\b\\s+", Pattern.CASE_INSENSITIVE);
-        return directivePattern.matcher(line).find();
+        return LineLexer.lex(line).isDirective(directiveType);
     }
 
     /**
@@ -90,8 +107,7 @@ public class Parser {
      * @return a boolean indicating if the line matches a VirtualHost
      */
     public static boolean isVHostMatch(String line) {
-        Pattern virtualHostPattern = Pattern.compile("<\\s*\\bVirtualHost\\b.*>", Pattern.CASE_INSENSITIVE);
-        return virtualHostPattern.matcher(line).find();
+        return LineLexer.lex(line).isVHostOpen();
     }
 
     /**
@@ -105,8 +121,7 @@ public class Parser {
      * @return a boolean indicating if the line matches a VirtualHost Close declaration.
      */
     public static boolean isVHostCloseMatch(String line) {
-        Pattern virtualHostClosePattern = Pattern.compile("</.*\\bVirtualHost\\b.*>", Pattern.CASE_INSENSITIVE);
-        return virtualHostClosePattern.matcher(line).find();
+        return LineLexer.lex(line).isVHostClose();
     }
 
     /**
@@ -120,8 +135,7 @@ public class Parser {
      * @return a boolean indicating if the line matches an IfModule Open Negation
      */
     public static boolean isIfModuleOpenNegateMatch(String line) {
-        Pattern ifModuleOpenNegatePattern = Pattern.compile("<\\s*\\bifmodule\\b\\s+!.*>", Pattern.CASE_INSENSITIVE);
-        return ifModuleOpenNegatePattern.matcher(line).find();
+        return LineLexer.lex(line).isIfModuleNegateOpen();
     }
 
     /**
@@ -135,8 +149,7 @@ public class Parser {
      * @return a boolean indicating if the line matches an IfModule Open Declaration
      */
     public static boolean isIfModuleOpenMatch(String line) {
-        Pattern ifModuleOpenPattern = Pattern.compile("<\\s*\\bifmodule\\b.*>", Pattern.CASE_INSENSITIVE);
-        return ifModuleOpenPattern.matcher(line).find();
+        return LineLexer.lex(line).isIfModuleOpen();
     }
 
     /**
@@ -150,8 +163,7 @@ public class Parser {
      * @return a boolean indicating if the line matches an IfModule Close declaration.
      */
     public static boolean isIfModuleCloseMatch(String line) {
-        Pattern ifModuleClosePattern = Pattern.compile("</\\s*\\bifmodule\\b\\s*>", Pattern.CASE_INSENSITIVE);
-        return ifModuleClosePattern.matcher(line).find();
+        return LineLexer.lex(line).isIfModuleClose();
     }
 
     /**
@@ -164,8 +176,7 @@ public class Parser {
      * @return a boolean indicating if the line matches the enclosure.
      */
     public static boolean isEnclosureTypeMatch(String line, String enclosureType) {
-        Pattern enclosurePattern = Pattern.compile("<\\s*\\b" + enclosureType + "\\b.*>", Pattern.CASE_INSENSITIVE);
-        return enclosurePattern.matcher(line).find();
+        return LineLexer.lex(line).isEnclosureOpen(enclosureType);
     }
 
     /**
@@ -178,8 +189,7 @@ public class Parser {
      * @return a boolean indicating if the line matches the closing enclosure type.
      */
     public static boolean isCloseEnclosureTypeMatch(String line, String enclosureType) {
-        Pattern closeEnclosurePattern = Pattern.compile("</\\s*\\b" + enclosureType + "\\b\\s*>", Pattern.CASE_INSENSITIVE);
-        return closeEnclosurePattern.matcher(line).find();
+        return LineLexer.lex(line).isEnclosureClose(enclosureType);
     }
 
     /**
@@ -190,8 +200,7 @@ public class Parser {
      * @return a boolean indicating if the line matches the enclosure format.
      */
     public static boolean isEnclosureMatch(String line) {
-        Pattern enclosurePattern = Pattern.compile("<\\s*[^/].*>", Pattern.CASE_INSENSITIVE);
-        return enclosurePattern.matcher(line).find();
+        return LineLexer.lex(line).isEnclosureOpen();
     }
 
     /**
@@ -202,8 +211,7 @@ public class Parser {
      * @return a boolean indicating if the line matches a closing enclosure format.
      */
     public static boolean isCloseEnclosureMatch(String line) {
-        Pattern closeEnclosurePattern = Pattern.compile("</.*>", Pattern.CASE_INSENSITIVE);
-        return closeEnclosurePattern.matcher(line).find();
+        return LineLexer.lex(line).isEnclosureClose();
     }
 
     /**
@@ -214,12 +222,15 @@ public class Parser {
      * @return a boolean indicating if the line matches an Include directive.
      */
     public static boolean isIncludeMatch(String line) {
-        Pattern includePattern = Pattern.compile("^\\s*\\b(Include|IncludeOptional)\\b", Pattern.CASE_INSENSITIVE);
-        return includePattern.matcher(line).find();
+        return LineLexer.lex(line).isInclude();
     }
 
     protected String getFileFromInclude(String line) {
-        return line.replaceAll("(?i)\\b(Include|IncludeOptional)\\b\\s+", "").replaceAll("\"", "");
+        return getFileFromInclude(LineLexer.lex(line));
+    }
+
+    protected String getFileFromInclude(LexedLine lexedLine) {
+        return lexedLine.getArguments().replaceAll("\"", "");
     }
 
     /**
@@ -236,14 +247,9 @@ public class Parser {
      * @return true if the line matches a negate module
      */
     public static boolean isInNegateModules(String line, Module modules[]) {
-        for (Module module : modules) {
-            if (module.getName().replaceAll("_module", "")
-                    .equals(line.replaceAll("(?i)<\\s*\\bifmodule\\b\\s*!mod_", "").replaceAll("\\.c\\s*>", "").replaceAll("(?i)<\\s*\\bifmodule\\b\\s*!", "").replaceAll("_module\\s*>", ""))) {
-                return true;
-            }
-        }
+        LexedLine lexedLine = LineLexer.lex(line);
 
-        return false;
+        return lexedLine.isIfModuleNegateOpen() && new LoadedModules(modules).isLoaded(lexedLine.getArguments());
     }
 
     /**
@@ -260,226 +266,330 @@ public class Parser {
      * @return true if the line matches module
      */
     public static boolean isInModules(String line, Module modules[]) {
-        for (Module module : modules) {
-            if (module.getName().replaceAll("_module", "")
-                    .equals(line.replaceAll("(?i)<\\s*\\bifmodule\\b\\s*mod_", "").replaceAll("\\.c\\s*>", "").replaceAll("(?i)<\\s*\\bifmodule\\b\\s*", "").replaceAll("_module\\s*>", ""))) {
-                return true;
-            }
-        }
+        LexedLine lexedLine = LineLexer.lex(line);
 
-        return false;
+        return lexedLine.isIfModuleOpen() && !lexedLine.isIfModuleNegateOpen() && new LoadedModules(modules).isLoaded(lexedLine.getArguments());
     }
 
-    private String processConfigurationLine(String line, Define defines[]) {
-              
-        String processedLine = line.replaceAll("\\s+\\\\\\s*" + Const.newLine, " "); 
-        
-        processedLine = Define.replaceDefinesInString(defines, Utils.sanitizeLineSpaces(processedLine));
-        
-        return processedLine;
+    static String processConfigurationLine(String line) {
+
+        // only a multi-line directive has a line continuation to remove
+        String processedLine = line;
+        if (line.indexOf(Const.newLine) >= 0) {
+            processedLine = continuationPattern.matcher(line).replaceAll(" ");
+        }
+
+        return LineLexer.collapseWhitespace(processedLine);
     }
     
-    private ConfigurationLine[] getConfigurationLines(String confFile, boolean loadDefines) throws Exception {
+    /**
+     * Reads the configuration starting at confFile.
+     * 
+     * @param confFile
+     *            the file to start reading from.
+     * @param loadDefines
+     *            true to collect Defines while reading and replace ${...} references with the Define values seen before each line.
+     * @param defines
+     *            the Defines in effect before confFile is read. Defines and UnDefines found while reading are applied to this map.
+     * @param followIncludes
+     *            true to read included files, false to only read confFile.
+     * @param fingerprints
+     *            the fingerprints of every file and include directory read are added to this list.
+     */
+    private ConfigurationLine[] getConfigurationLines(WalkContext context, String confFile, boolean loadDefines, LinkedHashMap<String, Define> defines, boolean followIncludes, ArrayList<FileFingerprint> fingerprints)
+            throws Exception {
 
-        Define defines[];
-        if (loadDefines) {
-            defines = Define.getAllDefine(new DirectiveParser(rootConfFile, serverRoot, staticModules, sharedModules));
-        } else {
-            defines = new Define[0];
-        }
+        final ArrayList<ConfigurationLine> configurationLines = new ArrayList<ConfigurationLine>();
 
-        ArrayList<ConfigurationLine> configurationLines = new ArrayList<ConfigurationLine>();
+        walkConfiguration(context, loadDefines, defines, confFile, followIncludes, new WalkHandler() {
+            public boolean line(ConfigurationLine configurationLine) {
+                configurationLines.add(configurationLine);
+                return true;
+            }
 
-        getConfigurationLines(defines, confFile, configurationLines);
+            public boolean include(ConfigurationLine includeLine, String file) {
+                return true;
+            }
+        }, fingerprints);
 
         return configurationLines.toArray(new ConfigurationLine[configurationLines.size()]);
     }
 
-    private void getConfigurationLines(Define defines[], String confFile, ArrayList<ConfigurationLine> configurationLines) throws Exception {
+    /**
+     * Receives the configuration lines of the include walk in the order that they appear in the Apache configuration.
+     */
+    private interface WalkHandler {
+
+        /**
+         * @return false to stop the walk.
+         */
+        boolean line(ConfigurationLine configurationLine) throws Exception;
+
+        /**
+         * Called before the lines of an included file are walked.
+         * 
+         * @return false to stop the walk.
+         */
+        boolean include(ConfigurationLine includeLine, String file) throws Exception;
+    }
 
-        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(confFile), "UTF-8"));
+    /**
+     * The state of one walk of the configuration. Every walk has its own context, so a walk on one thread never sees the modules or the recorder of a parse running on another thread.
+     */
+    private static class WalkContext {
+
+        final LoadedModules loadedModules;
+        // the Shared Modules of the LoadModule directives walked, null when LoadModule directives are not loaded
+        final ArrayList<SharedModule> discoveredSharedModules;
+        final ParserListener listener;
+        final ParseStatistics.Recorder recorder;
+
+        WalkContext(LoadedModules loadedModules, ArrayList<SharedModule> discoveredSharedModules, ParserListener listener, ParseStatistics.Recorder recorder) {
+            this.loadedModules = loadedModules;
+            this.discoveredSharedModules = discoveredSharedModules;
+            this.listener = listener;
+            this.recorder = recorder;
+        }
+    }
 
-        try {
+    /**
+     * @return the context of a walk that only reads the configuration.
+     */
+    private WalkContext getReadContext() {
+        return new WalkContext(loadedModules, null, listener, null);
+    }
+
+    /**
+     * @return false if the handler stopped the walk.
+     */
+    private boolean walkConfiguration(WalkContext context, boolean loadDefines, LinkedHashMap<String, Define> defines, String confFile, boolean followIncludes, WalkHandler handler, ArrayList<FileFingerprint> fingerprints)
+            throws Exception {
 
-            String strLine, cmpLine, concatLine = "";
-            Stack ifModuleStack = new Stack();
+        FileSegment segment = fileCache.getSegment(confFile, context.listener);
+        fingerprints.add(segment.getFingerprint());
+
+        String cmpLine;
+        ConfigurationLine configurationLine;
+        LexedLine lexedLine;
+        LoadedModules loadedModules = context.loadedModules;
+        ParseStatistics.Recorder recorder = context.recorder;
+        Stack ifModuleStack = new Stack();
+
+        LineTable lineTable = segment.getLineTable();
+        for (int row = 0; row < lineTable.size(); row++) {
+
+            configurationLine = lineTable.get(row);
+
+            // cached lines are processed without defines
+            if (loadDefines && (!defines.isEmpty() || resolveEnvironmentVariables) && lineTable.hasReference(row)) {
+                long start = (recorder == null ? 0 : System.nanoTime());
+
+                String processedLine = configurationLine.getProcessedLine();
+                cmpLine = Define.replaceDefinesInString(defines, processedLine, resolveEnvironmentVariables);
+                if (cmpLine != processedLine) {
+                    configurationLine = new ConfigurationLine(lineTable, row, LineLexer.lex(cmpLine));
+                }
+
+                if (recorder != null) {
+                    recorder.defineNanos += System.nanoTime() - start;
+                    if (cmpLine != processedLine) {
+                        recorder.linesReplaced++;
+                    }
+                }
+            }
+
+            if (!handler.line(configurationLine)) {
+                return false;
+            }
+
+            cmpLine = configurationLine.getProcessedLine();
+            lexedLine = configurationLine.getLexedLine();
             
-            int lineNumInFile = 0, currentConcatLineNum = -1;
-            while ((strLine = br.readLine()) != null) {
-
-                lineNumInFile++;
-
-                currentConcatLineNum = (currentConcatLineNum == -1 ? lineNumInFile : currentConcatLineNum);
-                concatLine += strLine;
-                
-                // Multiline configuration line
-                if(strLine.trim().endsWith("\\")) {
-                    concatLine += Const.newLine;
-                    continue;
-                } 
-                
-                cmpLine = processConfigurationLine(concatLine, defines);
-                
-                boolean isComment = isCommentMatch(cmpLine);
-                configurationLines.add(new ConfigurationLine(concatLine, cmpLine, confFile, isComment, currentConcatLineNum, lineNumInFile));
-
-                concatLine = "";
-                currentConcatLineNum = -1;
-                
-                if (!isComment) {
-                                       
-                    if (isIfModuleOpenNegateMatch(cmpLine)) {
-                        if (ifModuleStack.isEmpty()) {
-                            if (isInNegateModules(cmpLine, staticModules) || isInNegateModules(cmpLine, sharedModules)) {
-                                ifModuleStack.push(cmpLine);
-                            }
-                        } else {
-                            // we have found a nested iFModule iterate the counter
+            if (!lexedLine.isComment()) {
+                                   
+                if (lexedLine.isIfModuleNegateOpen()) {
+                    if (ifModuleStack.isEmpty()) {
+                        if (loadedModules.isLoaded(lexedLine.getArguments())) {
                             ifModuleStack.push(cmpLine);
                         }
-                    } else if (isIfModuleOpenMatch(cmpLine)) {
-                        // Check if were already in a module that isn't loaded
-                        if (ifModuleStack.isEmpty()) {
-                            if (!isInModules(cmpLine, staticModules) && !isInModules(cmpLine, sharedModules)) {
-                                ifModuleStack.push(cmpLine);
-                            }
-                        } else {
-                            // we have found a nested iFModule iterate the counter
+                    } else {
+                        // we have found a nested iFModule iterate the counter
+                        ifModuleStack.push(cmpLine);
+                    }
+                } else if (lexedLine.isIfModuleOpen()) {
+                    // Check if were already in a module that isn't loaded
+                    if (ifModuleStack.isEmpty()) {
+                        if (!loadedModules.isLoaded(lexedLine.getArguments())) {
                             ifModuleStack.push(cmpLine);
                         }
+                    } else {
+                        // we have found a nested iFModule iterate the counter
+                        ifModuleStack.push(cmpLine);
+                    }
+                }
+
+                if (!ifModuleStack.isEmpty()) {
+                    if (lexedLine.isIfModuleClose()) {
+                        ifModuleStack.pop();
+                    }
+
+                } else if (loadDefines && lexedLine.isDirective(Const.defineDirective)) {
+                    Define define = new Define(lexedLine.getArguments());
+                    defines.put(define.getName(), define);
+                } else if (loadDefines && lexedLine.isDirective(Const.undefineDirective)) {
+                    defines.remove(new Define(lexedLine.getArguments()).getName());
+                } else if (context.discoveredSharedModules != null && lexedLine.isDirective(Const.loadModuleDirective)) {
+                    String moduleName = ValueTokenizer.tokenize(lexedLine.getArguments())[0];
+                    context.discoveredSharedModules.add(new SharedModule(moduleName));
+                    loadedModules.add(moduleName);
+                } else if (followIncludes && lexedLine.isInclude()) {
+
+                    String file = getFileFromInclude(lexedLine);
+
+                    // if the filename starts with it is an absolute path,
+                    // otherwise its a relative path
+                    File check;
+                    if (file.startsWith("/") || (file.contains(":"))) {
+                        check = new File(file);
+                    } else {
+                        check = new File(serverRoot, file);
                     }
 
-                    if (!ifModuleStack.isEmpty()) {
-                        if (isIfModuleCloseMatch(cmpLine)) {
-                            ifModuleStack.pop();
+                    // check if its a directory, if it is we must include all
+                    // files in the directory
+                    if (check.isDirectory()) {
+                        fingerprints.add(new FileFingerprint(check));
+
+                        String children[] = check.list();
+
+                        Arrays.sort(children);
+
+                        ArrayList<String> includeFiles = new ArrayList<String>();
+
+                        File refFile;
+                        for (String child : children) {
+                            refFile = new File(check.getAbsolutePath(), child);
+                            // the temporary file of a write in progress is not part of the configuration
+                            if (!refFile.isDirectory() && !AtomicFileWriter.isTemporaryFile(child)) {
+                                includeFiles.add(refFile.getAbsolutePath());
+                            }
                         }
 
-                    } else if (isIncludeMatch(cmpLine)) {
-    
-                        String file = getFileFromInclude(cmpLine);
-    
-                        // if the filename starts with it is an absolute path,
-                        // otherwise its a relative path
-                        File check;
-                        if (file.startsWith("/") || (file.contains(":"))) {
-                            check = new File(file);
-                        } else {
-                            check = new File(serverRoot, file);
+                        if (!walkConfiguration(context, loadDefines, defines, configurationLine, includeFiles, handler, fingerprints)) {
+                            return false;
                         }
-    
-                        // check if its a directory, if it is we must include all
-                        // files in the directory
-                        if (check.isDirectory()) {
-                            String children[] = check.list();
-    
+                    } else {
+                        // check if its wild card here
+                        if (file.contains("*")) {
+                            File parent = new File(check.getParentFile());
+                            fingerprints.add(new FileFingerprint(parent));
+
+                            String children[] = parent.list();
+
                             Arrays.sort(children);
-    
+
+                            ArrayList<String> includeFiles = new ArrayList<String>();
+
+                            Pattern wildcard = Pattern.compile(check.getName().replaceAll("\\.", "\\.").replaceAll("\\*", ".*"));
+
                             File refFile;
                             for (String child : children) {
-                                refFile = new File(check.getAbsolutePath(), child);
-                                if (!refFile.isDirectory()) {
-                                    getConfigurationLines(defines, refFile.getAbsolutePath(), configurationLines);
+                                refFile = new File(parent.getAbsolutePath(), child);
+                                if (!refFile.isDirectory() && !AtomicFileWriter.isTemporaryFile(child) && wildcard.matcher(refFile.getName()).matches()) {
+                                    includeFiles.add(refFile.getAbsolutePath());
                                 }
                             }
+
+                            if (!walkConfiguration(context, loadDefines, defines, configurationLine, includeFiles, handler, fingerprints)) {
+                                return false;
+                            }
                         } else {
-                            // check if its wild card here
-                            if (file.contains("*")) {
-                                File parent = new File(check.getParentFile());
-                                String children[] = parent.list();
-    
-                                Arrays.sort(children);
-    
-                                File refFile;
-                                for (String child : children) {
-                                    refFile = new File(parent.getAbsolutePath(), child);
-                                    if (!refFile.isDirectory() && refFile.getName().matches(check.getName().replaceAll("\\.", "\\.").replaceAll("\\*", ".*"))) {
-                                        getConfigurationLines(defines, refFile.getAbsolutePath(), configurationLines);
-                                    }
-                                }
-                            } else {
-                                getConfigurationLines(defines, check.getAbsolutePath(), configurationLines);
+                            if (!handler.include(configurationLine, check.getAbsolutePath())) {
+                                return false;
+                            }
+                            if (!walkConfiguration(context, loadDefines, defines, check.getAbsolutePath(), true, handler, fingerprints)) {
+                                return false;
                             }
                         }
                     }
                 }
+            }
+        }
+
+        return true;
+    }
+
+    private boolean walkConfiguration(WalkContext context, boolean loadDefines, LinkedHashMap<String, Define> defines, ConfigurationLine includeLine, ArrayList<String> includeFiles, WalkHandler handler,
+            ArrayList<FileFingerprint> fingerprints) throws Exception {
+
+        // the files are read in parallel when enabled but always walked in order
+        fileCache.preload(includeFiles, context.listener);
 
+        for (String includeFile : includeFiles) {
+            if (!handler.include(includeLine, includeFile)) {
+                return false;
+            }
+            if (!walkConfiguration(context, loadDefines, defines, includeFile, true, handler, fingerprints)) {
+                return false;
             }
-        } finally {
-            br.close();
         }
 
+        return true;
     }
 
     protected ParsableLine[] getParsableLines(ConfigurationLine[] configurationLines, boolean includeVHosts) throws Exception {
 
-        ArrayList<ParsableLine> lines = new ArrayList<ParsableLine>();
-        Stack ifModuleStack = new Stack();
-        Stack virtualHostStack = new Stack();
+        ParsableLine lines[] = new ParsableLine[configurationLines.length];
 
-        String cmpLine;
-        boolean isComment;
-        for (ConfigurationLine configurationLine : configurationLines) {
-            cmpLine = configurationLine.getProcessedLine();
-            isComment = configurationLine.isComment();
-            
-            /**
-             * Parse IfModule statements to see if we should add the directives
-             * 
-             * Two types of IfModules <IfModule mpm_prefork_module> <IfModule mod_ssl.c>
-             * 
-             */
-            if (!isComment) {
-
-                if (isIfModuleOpenNegateMatch(cmpLine)) {
-                    if (ifModuleStack.isEmpty()) {
-                        if (isInNegateModules(cmpLine, staticModules) || isInNegateModules(cmpLine, sharedModules)) {
-                            ifModuleStack.push(cmpLine);
-                        }
-                    } else {
-                        // we have found a nested iFModule iterate the counter
-                        ifModuleStack.push(cmpLine);
-                    }
-                } else if (isIfModuleOpenMatch(cmpLine)) {
-                    // Check if were already in a module that isn't loaded
-                    if (ifModuleStack.isEmpty()) {
-                        if (!isInModules(cmpLine, staticModules) && !isInModules(cmpLine, sharedModules)) {
-                            ifModuleStack.push(cmpLine);
-                        }
-                    } else {
-                        // we have found a nested iFModule iterate the counter
-                        ifModuleStack.push(cmpLine);
-                    }
-                }
+        ParsableLineFilter filter = new ParsableLineFilter(loadedModules, includeVHosts);
+        for (int i = 0; i < configurationLines.length; i++) {
+            lines[i] = filter.filter(configurationLines[i]);
+        }
 
-                /**
-                 * Parse VirtualHost statements to see if we should add the directives
-                 * 
-                 * Example VirtualHost <VirtualHost *:80>
-                 * 
-                 */
-                if (!includeVHosts && isVHostMatch(cmpLine)) {
-                    virtualHostStack.push(cmpLine);
-                }
-            }
+        return lines;
+    }
 
-            if (!ifModuleStack.isEmpty()) {
-                if (!isComment && isIfModuleCloseMatch(cmpLine)) {
-                    ifModuleStack.pop();
+    /**
+     * Reads the active configuration and passes each line to the visitor as it is read, in the order that they appear in the Apache configuration. No list of the configuration lines is built, so
+     * reading stops as soon as the visitor returns false.
+     * 
+     * @param visitor
+     *            the visitor to pass the lines to.
+     * @param includeVHosts
+     *            boolean indicating whether lines in Virtual Hosts are parsable.
+     * @return true if the whole configuration was read, false if the visitor stopped reading.
+     * @throws Exception
+     */
+    public boolean visitConfiguration(final ConfigurationVisitor visitor, boolean includeVHosts) throws Exception {
+
+        WalkContext context = getReadContext();
+        final ParsableLineFilter filter = new ParsableLineFilter(context.loadedModules, includeVHosts);
+
+        return walkConfiguration(context, true, new LinkedHashMap<String, Define>(), rootConfFile, true, new WalkHandler() {
+            // the include lines are kept until every file they include has been walked
+            private final IdentityHashMap<ConfigurationLine, ParsableLine> includeLines = new IdentityHashMap<ConfigurationLine, ParsableLine>();
+
+            public boolean line(ConfigurationLine configurationLine) throws Exception {
+                ParsableLine current = filter.filter(configurationLine);
+
+                LexedLine lexedLine = configurationLine.getLexedLine();
+                if (lexedLine.isInclude()) {
+                    includeLines.put(configurationLine, current);
                 }
 
-                lines.add(new ParsableLine(configurationLine, false));
-            } else if (!virtualHostStack.isEmpty()) {
-                if (!isComment && isVHostCloseMatch(cmpLine)) {
-                    virtualHostStack.pop();
+                if (lexedLine.isEnclosureOpen()) {
+                    return visitor.onEnclosureStart(current);
+                } else if (lexedLine.isEnclosureClose()) {
+                    return visitor.onEnclosureEnd(current);
                 }
 
-                lines.add(new ParsableLine(configurationLine, false));
-            } else {
-                lines.add(new ParsableLine(configurationLine, true));
+                return visitor.onLine(current);
             }
-        }
 
-        return lines.toArray(new ParsableLine[lines.size()]);
+            public boolean include(ConfigurationLine includeLine, String file) throws Exception {
+                return visitor.onInclude(includeLines.get(includeLine), file);
+            }
+        }, new ArrayList<FileFingerprint>());
     }
 
     /**
@@ -496,7 +606,11 @@ public class Parser {
     }
 
     protected ParsableLine[] getConfigurationParsableLines(boolean loadDefines, boolean includeVHosts) throws IOException, Exception {
-        return getParsableLines(getConfigurationLines(rootConfFile, loadDefines), includeVHosts);
+        if (loadDefines) {
+            return getConfigurationSnapshot().getConfigurationParsableLines(includeVHosts);
+        }
+
+        return getParsableLines(getConfigurationLines(getReadContext(), rootConfFile, loadDefines, new LinkedHashMap<String, Define>(), true, new ArrayList<FileFingerprint>()), includeVHosts);
     }
 
     /**
@@ -514,67 +628,377 @@ public class Parser {
 
     protected ParsableLine[] getFileParsableLines(String file, boolean loadDefines, boolean includeVHosts) throws IOException, Exception {
 
-        ArrayList<ConfigurationLine> fileConfigurationLines = new ArrayList<ConfigurationLine>();
+        // the file starts with the Defines of the active configuration
+        LinkedHashMap<String, Define> defines = new LinkedHashMap<String, Define>();
 
-        File currentFile = new File(file);
+        if (loadDefines) {
+            ConfigurationSnapshot snapshot = getConfigurationSnapshot();
+
+            ConfigurationLine snapshotLines[] = snapshot.getFileConfigurationLines(file);
+            if (snapshotLines != null) {
+                return getParsableLines(snapshotLines, includeVHosts);
+            }
 
-        // filter any lines that dont belong to this file
-        ConfigurationLine configurationLines[] = getConfigurationLines(file, loadDefines);
-        for (ConfigurationLine configurationLine : configurationLines) {
-            if (currentFile.getAbsolutePath().equals(new File(configurationLine.getFile()).getAbsolutePath())) {
-                fileConfigurationLines.add(configurationLine);
+            for (Define define : snapshot.getDefines()) {
+                defines.put(define.getName(), define);
             }
         }
 
-        return getParsableLines(fileConfigurationLines.toArray(new ConfigurationLine[fileConfigurationLines.size()]), includeVHosts);
+        // only the file itself is read, its includes are not part of the file
+        return getParsableLines(getConfigurationLines(getReadContext(), file, loadDefines, defines, false, new ArrayList<FileFingerprint>()), includeVHosts);
     }
 
     /**
-     *
-     * Gets the active file list as it appears in the configuration.
-     * If the user includes a configuration file more than once then it will be added multiple times to the list.
-     *
-     * @return an array with all included configuration files. The list of files is in the order that they appear in the apache configuration.
+     * Gets a snapshot of the active configuration. The snapshot is built with one parse of the configuration and is reused by the queries of this parser until one of the parsed files or include
+     * directories changes. This method is synchronized so a {@link ConfigurationWatcher} can parse the configuration while other threads query it.
+     * 
+     * @return a snapshot of the active configuration.
      * @throws Exception
      */
-    public String[] getActiveConfFileListWithDuplicates() throws Exception {
+    public synchronized ConfigurationSnapshot getConfigurationSnapshot() throws Exception {
+        if (configurationSnapshot == null && snapshotStore != null && !snapshotStoreChecked) {
+            snapshotStoreChecked = true;
+            loadStoredSnapshot();
+        }
+
+        if (configurationSnapshot == null || isSnapshotStale()) {
+            configurationSnapshot = parseConfiguration(listener == null ? null : new ParseStatistics.Recorder(listener));
 
-        ParsableLine lines[] = getConfigurationParsableLines(true);
+            if (snapshotStore != null) {
+                try {
+                    snapshotStore.save(getSnapshotKey(), configurationSnapshot);
+                } catch (IOException e) {
+                    // the stored snapshot is only a cache, the next process parses the configuration instead
+                }
+            }
+        }
 
-        ArrayList<String> files = new ArrayList<String>();
+        return configurationSnapshot;
+    }
 
-        ConfigurationLine configurationLine;
-        for (ParsableLine line : lines) {
-            if (line.isInclude()) {
-                configurationLine = line.getConfigurationLine();
-                if (configurationLine.getLineOfStart() == 1) {
-                    files.add(configurationLine.getFile());
+    /**
+     * @return true if a file or include directory of the snapshot has changed.
+     */
+    private boolean isSnapshotStale() throws IOException {
+        if (!verifyContentHash) {
+            return configurationSnapshot.isStale();
+        }
+
+        // a file changed without a change to its stat would be read back from the cache, so every changed file is evicted
+        boolean stale = false;
+        for (FileFingerprint fingerprint : configurationSnapshot.getFingerprints()) {
+            if (!fingerprint.isCurrent(true)) {
+                fileCache.evict(fingerprint.getPath());
+                stale = true;
+            }
+        }
+
+        return stale;
+    }
+
+    /**
+     * Parses the whole configuration into a new snapshot.
+     * 
+     * @param recorder
+     *            the recorder to time the phases of the parse with, or null to take no timings.
+     */
+    private ConfigurationSnapshot parseConfiguration(final ParseStatistics.Recorder recorder) throws Exception {
+        LinkedHashMap<String, Define> defines = new LinkedHashMap<String, Define>();
+        ArrayList<FileFingerprint> fingerprints = new ArrayList<FileFingerprint>();
+
+        // the modules of a parse are only published once the parse has completed
+        LoadedModules parseModules = loadedModules;
+        ArrayList<SharedModule> discoveredSharedModules = null;
+        if (isLoadModuleDiscovery()) {
+            parseModules = new LoadedModules(staticModules, sharedModules);
+            discoveredSharedModules = new ArrayList<SharedModule>();
+        }
+
+        WalkContext context = new WalkContext(parseModules, discoveredSharedModules, (recorder == null ? listener : recorder), recorder);
+
+        // the lines are masked as they are walked, so an IfModule sees the modules of the LoadModule directives before it the same way the walk does
+        final ParsableLineFilter vHostFilter = new ParsableLineFilter(parseModules, true);
+        final ParsableLineFilter filter = new ParsableLineFilter(parseModules, false);
+        final ArrayList<ConfigurationLine> configurationLines = new ArrayList<ConfigurationLine>();
+        final ArrayList<ParsableLine> vHostParsableLines = new ArrayList<ParsableLine>();
+        final ArrayList<ParsableLine> parsableLines = new ArrayList<ParsableLine>();
+
+        long start = (recorder == null ? 0 : System.nanoTime());
+
+        walkConfiguration(context, true, defines, rootConfFile, true, new WalkHandler() {
+            public boolean line(ConfigurationLine configurationLine) {
+                long start = (recorder == null ? 0 : System.nanoTime());
+
+                configurationLines.add(configurationLine);
+                vHostParsableLines.add(vHostFilter.filter(configurationLine));
+                parsableLines.add(filter.filter(configurationLine));
+
+                if (recorder != null) {
+                    recorder.maskNanos += System.nanoTime() - start;
                 }
+                return true;
             }
+
+            public boolean include(ConfigurationLine includeLine, String file) {
+                return true;
+            }
+        }, fingerprints);
+
+        if (recorder != null) {
+            recorder.walkNanos = System.nanoTime() - start;
+            start = System.nanoTime();
         }
 
-        return files.toArray(new String[files.size()]);
+        SharedModule loadModuleSharedModules[] = new SharedModule[0];
+        if (discoveredSharedModules != null) {
+            loadModuleSharedModules = discoveredSharedModules.toArray(new SharedModule[discoveredSharedModules.size()]);
+        }
+
+        ParsableLine vHostParsableLineArray[] = vHostParsableLines.toArray(new ParsableLine[vHostParsableLines.size()]);
+        ParsableLine parsableLineArray[] = parsableLines.toArray(new ParsableLine[parsableLines.size()]);
 
+        ConfigurationSnapshot snapshot = new ConfigurationSnapshot(rootConfFile, configurationLines.toArray(new ConfigurationLine[configurationLines.size()]), vHostParsableLineArray,
+                parsableLineArray, defines.values().toArray(new Define[defines.size()]), loadModuleSharedModules, fingerprints.toArray(new FileFingerprint[fingerprints.size()]));
+
+        if (recorder != null) {
+            recorder.snapshotNanos = System.nanoTime() - start;
+        }
+
+        // drop cached files that are no longer included
+        ArrayList<String> paths = new ArrayList<String>();
+        for (FileFingerprint fingerprint : fingerprints) {
+            paths.add(fingerprint.getPath());
+        }
+        fileCache.retain(paths);
+
+        loadedModules = parseModules;
+
+        if (recorder != null) {
+            recorder.complete(snapshot, vHostParsableLineArray, parsableLineArray);
+        }
+
+        return snapshot;
     }
 
     /**
-     * Gets a unique list of configuration files currently included in the apache configuration. 
+     * Loads the stored snapshot of the configuration. The line tables of the files that have not changed are added to the file cache, so a stale snapshot still saves reading those files.
+     */
+    private void loadStoredSnapshot() {
+        ConfigurationSnapshot storedSnapshot = snapshotStore.load(getSnapshotKey());
+        if (storedSnapshot == null) {
+            return;
+        }
+
+        HashMap<String, LineTable> lineTables = new HashMap<String, LineTable>();
+        for (LineTable lineTable : storedSnapshot.getLineTables()) {
+            lineTables.put(lineTable.getFile(), lineTable);
+        }
+
+        for (FileFingerprint fingerprint : storedSnapshot.getFingerprints()) {
+            LineTable lineTable = lineTables.get(fingerprint.getPath());
+            if (lineTable != null && fingerprint.getContentHash() != null) {
+                fileCache.putSegment(fingerprint.getPath(), new FileSegment(fingerprint, lineTable));
+            }
+        }
+
+        if (isLoadModuleDiscovery()) {
+            loadedModules = new LoadedModules(staticModules, sharedModules, storedSnapshot.getLoadModuleSharedModules());
+        }
+
+        configurationSnapshot = storedSnapshot;
+    }
+
+    /**
+     * @return a key describing everything other than the configuration files that the snapshot depends on.
+     */
+    private String getSnapshotKey() {
+        StringBuilder key = new StringBuilder();
+        key.append(getClass().getName()).append('\n');
+        key.append(new File(rootConfFile).getAbsolutePath()).append('\n');
+        key.append(new File(serverRoot).getAbsolutePath()).append('\n');
+        key.append(getModuleNames(staticModules)).append('\n');
+        key.append(getModuleNames(sharedModules)).append('\n');
+        key.append(isLoadModuleDiscovery()).append('\n');
+        key.append(resolveEnvironmentVariables);
+
+        if (resolveEnvironmentVariables) {
+            key.append('\n').append(new TreeMap<String, String>(System.getenv()));
+        }
+
+        return key.toString();
+    }
+
+    private static TreeSet<String> getModuleNames(Module modules[]) {
+        TreeSet<String> names = new TreeSet<String>();
+        if (modules != null) {
+            for (Module module : modules) {
+                names.add(module.getName());
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * Indicates whether LoadModule directives found while parsing the configuration are treated as loaded Shared Modules. When true, IfModule statements that follow a LoadModule directive see its
+     * module as loaded, the same way Apache reads the configuration. By default only the modules given to the constructor are loaded.
      * 
-     * @return an array with all included configuration files. The list of files is in the order that they appear in the apache configuration.
+     * @return true to load the modules of LoadModule directives.
+     */
+    protected boolean isLoadModuleDiscovery() {
+        return false;
+    }
+
+    /**
+     * @return the Shared Modules of the active LoadModule directives found by the last parse of the configuration when {@link #isLoadModuleDiscovery()} is true.
      * @throws Exception
      */
-    public String[] getActiveConfFileList() throws Exception {
+    protected SharedModule[] getLoadModuleSharedModules() throws Exception {
+        return getConfigurationSnapshot().getLoadModuleSharedModules().clone();
+    }
 
-        String activeFiles[] = getActiveConfFileListWithDuplicates();
+    /**
+     * Starts a transaction that collects changes to the configuration and writes each changed file once when it is committed.
+     * 
+     * @return a new transaction.
+     */
+    public ConfigurationTransaction beginTransaction() {
+        return new ConfigurationTransaction(this);
+    }
 
-        ArrayList<String> files = new ArrayList<String>();
-        for(String activeFile : activeFiles) {
-            if(!files.contains(activeFile)) {
-                files.add(activeFile);
-            }
+    /**
+     * Discards the cached configuration snapshot. The next query will parse the configuration again. Unchanged files are not read again. This is called whenever this parser writes to a
+     * configuration file.
+     */
+    public synchronized void invalidateConfigurationSnapshot() {
+        configurationSnapshot = null;
+    }
+
+    /**
+     * Discards the cached configuration snapshot and all cached files. The next query will read every configuration file again.
+     */
+    public synchronized void clearCache() {
+        configurationSnapshot = null;
+        fileCache.clear();
+    }
+
+    /**
+     * By default a configuration file is considered unchanged while its last modified time and length are unchanged. Content verification also compares a hash of the file content on every query,
+     * which reads every configuration file but detects changes that do not alter the last modified time or length.
+     * 
+     * @param verifyContentHash
+     *            true to verify the content hash of every configuration file on every query.
+     */
+    public void setVerifyContentHash(boolean verifyContentHash) {
+        this.verifyContentHash = verifyContentHash;
+    }
+
+    public boolean isVerifyContentHash() {
+        return verifyContentHash;
+    }
+
+    /**
+     * The files of a directory or wildcard include can be read on several threads. The configuration lines are always in the same order as a parse on a single thread. This helps configurations with
+     * many included files on slow storage.
+     * 
+     * @param includeLoadThreads
+     *            the number of threads used to read included files. 1 or less reads every file on the calling thread which is the default.
+     */
+    public void setIncludeLoadThreads(int includeLoadThreads) {
+        fileCache.setLoadThreads(includeLoadThreads);
+    }
+
+    public int getIncludeLoadThreads() {
+        return fileCache.getLoadThreads();
+    }
+
+    /**
+     * Apache replaces a ${NAME} reference that does not match a Define with the environment variable of the same name. This is disabled by default because the environment of this process may not
+     * match the environment of the Apache server.
+     * 
+     * @param resolveEnvironmentVariables
+     *            true to replace ${NAME} references with environment variables when there is no matching Define.
+     */
+    public void setResolveEnvironmentVariables(boolean resolveEnvironmentVariables) {
+        if (this.resolveEnvironmentVariables != resolveEnvironmentVariables) {
+            invalidateConfigurationSnapshot();
         }
 
-        return files.toArray(new String[files.size()]);
+        this.resolveEnvironmentVariables = resolveEnvironmentVariables;
+    }
+
+    public boolean isResolveEnvironmentVariables() {
+        return resolveEnvironmentVariables;
+    }
+
+    /**
+     * Installs a listener that is told about every configuration file read, every cache hit, the timings and counters of every parse of the whole configuration and every committed edit. No timings
+     * are taken when no listener is installed, which is the default.
+     * 
+     * @param listener
+     *            the listener, or null to remove the listener.
+     */
+    public void setParserListener(ParserListener listener) {
+        this.listener = listener;
+        fileCache.setListener(listener);
+    }
+
+    public ParserListener getParserListener() {
+        return listener;
+    }
+
+    /**
+     * Processes that start often, such as command line tools, can keep the parsed configuration in a snapshot directory instead of parsing the whole configuration every time they start. The first
+     * query of this parser loads the stored snapshot and uses it while none of the configuration files and include directories have changed. Files that have not changed are not parsed again when
+     * others have. Every new parse replaces the stored snapshot.
+     * 
+     * @param snapshotDirectory
+     *            the directory to store snapshots in, or null to not store snapshots which is the default.
+     */
+    public void setSnapshotDirectory(String snapshotDirectory) {
+        this.snapshotStore = (snapshotDirectory == null ? null : new ConfigurationSnapshotStore(snapshotDirectory));
+        this.snapshotStoreChecked = false;
+    }
+
+    public String getSnapshotDirectory() {
+        return (snapshotStore == null ? null : snapshotStore.getDirectory());
+    }
+
+    /**
+     * Edited files are always written to a temporary file and renamed over the original, so Apache never reads a partially written file. By default the written files are also synced to disk before
+     * an edit returns, once for all files of a {@link ConfigurationTransaction}.
+     * 
+     * @param syncWrites
+     *            false to skip syncing edited files to disk. The edits stay atomic but may be lost on a crash.
+     */
+    public void setSyncWrites(boolean syncWrites) {
+        this.syncWrites = syncWrites;
+    }
+
+    public boolean isSyncWrites() {
+        return syncWrites;
+    }
+
+    /**
+     *
+     * Gets the active file list as it appears in the configuration.
+     * If the user includes a configuration file more than once then it will be added multiple times to the list.
+     *
+     * @return an array with all included configuration files. The list of files is in the order that they appear in the apache configuration.
+     * @throws Exception
+     */
+    public String[] getActiveConfFileListWithDuplicates() throws Exception {
+        return getConfigurationSnapshot().getActiveConfFileListWithDuplicates();
+    }
+
+    /**
+     * Gets a unique list of configuration files currently included in the apache configuration. 
+     * 
+     * @return an array with all included configuration files. The list of files is in the order that they appear in the apache configuration.
+     * @throws Exception
+     */
+    public String[] getActiveConfFileList() throws Exception {
+        return getConfigurationSnapshot().getActiveConfFileList();
     }
 
 }
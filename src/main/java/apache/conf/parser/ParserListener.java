@@ -0,0 +1,54 @@
+package apache.conf.parser;
+
+/**
+ * <p>
+ * Interface used to observe the work a {@link Parser} does to read the Apache configuration.
+ * </p>
+ * <p>
+ * A listener is installed with {@link Parser#setParserListener(ParserListener)}. {@link ParserMonitor} is a listener that publishes the cumulative activity of a parser as an MBean. Without a listener the parser takes no timings and counts nothing. Files of a directory or wildcard include may be
+ * read on the include loader threads, so {@link #fileRead(String, long, long)} and {@link #fileCacheHit(String)} must be safe to call from several threads.
+ * </p>
+ * <p>
+ * Extend {@link ParserListenerAdapter} to implement only the methods that are needed.
+ * </p>
+ */
+public interface ParserListener {
+
+    /**
+     * Called after a configuration file is read from disk and split into configuration lines.
+     * 
+     * @param file
+     *            the file that was read.
+     * @param bytes
+     *            the number of bytes read.
+     * @param nanos
+     *            the time taken to read and split the file in nanoseconds.
+     */
+    void fileRead(String file, long bytes, long nanos);
+
+    /**
+     * Called when the cached configuration lines of an unchanged file are used instead of reading the file.
+     * 
+     * @param file
+     *            the file.
+     */
+    void fileCacheHit(String file);
+
+    /**
+     * Called after the parser has parsed the whole configuration and built a new {@link ConfigurationSnapshot}.
+     * 
+     * @param statistics
+     *            the timings and counters of the parse.
+     */
+    void parseCompleted(ParseStatistics statistics);
+
+    /**
+     * Called after a {@link ConfigurationTransaction} has written its files. The edit methods of the parsers commit a transaction for every call.
+     * 
+     * @param files
+     *            the files that were written.
+     * @param nanos
+     *            the time taken to write and replace the files in nanoseconds.
+     */
+    void editCommitted(String files[], long nanos);
+}
@@ -0,0 +1,21 @@
+package apache.conf.parser;
+
+/**
+ * <p>
+ * An implementation of {@link ParserListener} that ignores every event. Extend this class to implement only the methods that are needed.
+ * </p>
+ */
+public class ParserListenerAdapter implements ParserListener {
+
+    public void fileRead(String file, long bytes, long nanos) {
+    }
+
+    public void fileCacheHit(String file) {
+    }
+
+    public void parseCompleted(ParseStatistics statistics) {
+    }
+
+    public void editCommitted(String files[], long nanos) {
+    }
+}
@@ -0,0 +1,222 @@
+package apache.conf.parser;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>
+ * A {@link ParserListener} that keeps the cumulative activity of a parser and publishes it as an MBean, so the parser can be watched with JMX tools such as JConsole.
+ * </p>
+ * <p>
+ * Install the monitor with {@link Parser#setParserListener(ParserListener)} and publish it with {@link #register(String)}. The events are also passed on to the listener given to the constructor, so
+ * the monitor does not take the place of another listener.
+ * </p>
+ * 
+ * <pre>
+ * ParserMonitor monitor = new ParserMonitor();
+ * parser.setParserListener(monitor);
+ * monitor.register(&quot;main&quot;);
+ * </pre>
+ */
+public class ParserMonitor implements ParserListener, ParserMonitorMBean {
+
+    /**
+     * The domain of the MBean names.
+     */
+    public static final String domain = "apache.conf.parser";
+
+    private static final double nanosPerMilli = 1000000d;
+
+    private final ParserListener listener;
+
+    private final AtomicLong parseCount = new AtomicLong();
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final AtomicLong maxParseNanos = new AtomicLong();
+    private volatile long lastParseNanos;
+    private volatile long lastParseTime;
+    private final AtomicLong filesRead = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private volatile int snapshotLines;
+    private volatile int snapshotFiles;
+    private final AtomicLong editCount = new AtomicLong();
+    private final AtomicLong editNanos = new AtomicLong();
+    private final AtomicLong filesWritten = new AtomicLong();
+    private volatile long lastEditNanos;
+
+    private ObjectName objectName;
+
+    public ParserMonitor() {
+        this(new ParserListenerAdapter());
+    }
+
+    /**
+     * @param listener
+     *            the listener to pass every event on to.
+     */
+    public ParserMonitor(ParserListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Registers this monitor with the platform MBean server as apache.conf.parser:type=ParserMonitor,name=&lt;name&gt;.
+     * 
+     * @param name
+     *            the name that tells the parsers of this process apart.
+     * @throws JMException
+     *             if the name is already registered.
+     */
+    public synchronized void register(String name) throws JMException {
+        unregister();
+
+        ObjectName objectName = new ObjectName(domain + ":type=ParserMonitor,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+
+        this.objectName = objectName;
+    }
+
+    /**
+     * Removes this monitor from the platform MBean server if it is registered.
+     * 
+     * @throws JMException
+     */
+    public synchronized void unregister() throws JMException {
+        if (objectName == null) {
+            return;
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+
+        objectName = null;
+    }
+
+    /**
+     * @return the name this monitor is registered with, or null if it is not registered.
+     */
+    public synchronized ObjectName getObjectName() {
+        return objectName;
+    }
+
+    public void fileRead(String file, long bytes, long nanos) {
+        filesRead.incrementAndGet();
+        bytesRead.addAndGet(bytes);
+
+        listener.fileRead(file, bytes, nanos);
+    }
+
+    public void fileCacheHit(String file) {
+        cacheHits.incrementAndGet();
+
+        listener.fileCacheHit(file);
+    }
+
+    public void parseCompleted(ParseStatistics statistics) {
+        long nanos = statistics.getTotalNanos();
+
+        parseCount.incrementAndGet();
+        parseNanos.addAndGet(nanos);
+
+        long max = maxParseNanos.get();
+        while (nanos > max && !maxParseNanos.compareAndSet(max, nanos)) {
+            max = maxParseNanos.get();
+        }
+
+        lastParseNanos = nanos;
+        lastParseTime = System.currentTimeMillis();
+        snapshotLines = statistics.getLinesProcessed();
+        snapshotFiles = statistics.getFiles();
+
+        listener.parseCompleted(statistics);
+    }
+
+    public void editCommitted(String files[], long nanos) {
+        editCount.incrementAndGet();
+        editNanos.addAndGet(nanos);
+        filesWritten.addAndGet(files.length);
+        lastEditNanos = nanos;
+
+        listener.editCommitted(files, nanos);
+    }
+
+    public long getParseCount() {
+        return parseCount.get();
+    }
+
+    public double getLastParseMillis() {
+        return lastParseNanos / nanosPerMilli;
+    }
+
+    public double getAverageParseMillis() {
+        return getAverage(parseNanos.get(), parseCount.get());
+    }
+
+    public double getMaxParseMillis() {
+        return maxParseNanos.get() / nanosPerMilli;
+    }
+
+    public long getLastParseTime() {
+        return lastParseTime;
+    }
+
+    public long getFilesRead() {
+        return filesRead.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public int getSnapshotLines() {
+        return snapshotLines;
+    }
+
+    public int getSnapshotFiles() {
+        return snapshotFiles;
+    }
+
+    public long getEditCount() {
+        return editCount.get();
+    }
+
+    public long getFilesWritten() {
+        return filesWritten.get();
+    }
+
+    public double getLastEditMillis() {
+        return lastEditNanos / nanosPerMilli;
+    }
+
+    public double getAverageEditMillis() {
+        return getAverage(editNanos.get(), editCount.get());
+    }
+
+    public void reset() {
+        parseCount.set(0);
+        parseNanos.set(0);
+        maxParseNanos.set(0);
+        lastParseNanos = 0;
+        lastParseTime = 0;
+        filesRead.set(0);
+        bytesRead.set(0);
+        cacheHits.set(0);
+        editCount.set(0);
+        editNanos.set(0);
+        filesWritten.set(0);
+        lastEditNanos = 0;
+    }
+
+    private static double getAverage(long nanos, long count) {
+        return (count == 0 ? 0 : nanos / nanosPerMilli / count);
+    }
+}
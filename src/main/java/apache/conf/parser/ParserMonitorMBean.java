@@ -0,0 +1,69 @@
+package apache.conf.parser;
+
+/**
+ * <p>
+ * The management interface of {@link ParserMonitor}. Times are in milliseconds.
+ * </p>
+ */
+public interface ParserMonitorMBean {
+
+    /**
+     * @return the number of parses of the whole configuration.
+     */
+    long getParseCount();
+
+    double getLastParseMillis();
+
+    double getAverageParseMillis();
+
+    double getMaxParseMillis();
+
+    /**
+     * @return the time that the last parse completed in milliseconds since the epoch, or 0 if there has been no parse.
+     */
+    long getLastParseTime();
+
+    /**
+     * @return the number of files read from disk.
+     */
+    long getFilesRead();
+
+    /**
+     * @return the number of bytes read from disk.
+     */
+    long getBytesRead();
+
+    /**
+     * @return the number of unchanged files whose cached lines were used.
+     */
+    long getCacheHits();
+
+    /**
+     * @return the number of configuration lines in the last parsed snapshot.
+     */
+    int getSnapshotLines();
+
+    /**
+     * @return the number of configuration files in the last parsed snapshot.
+     */
+    int getSnapshotFiles();
+
+    /**
+     * @return the number of committed edits.
+     */
+    long getEditCount();
+
+    /**
+     * @return the number of files written by committed edits.
+     */
+    long getFilesWritten();
+
+    double getLastEditMillis();
+
+    double getAverageEditMillis();
+
+    /**
+     * Sets every counter back to 0.
+     */
+    void reset();
+}
@@ -0,0 +1,113 @@
+package apache.conf.parser;
+
+import java.util.ArrayList;
+
+/**
+ * <p>
+ * This class is used to split configuration lines into their parts in a single pass.
+ * </p>
+ * <p>
+ * The following rules are used:<br/>
+ * <br/>
+ * 1. Parts are separated by whitespace.<br/>
+ * 2. A part that starts with a single or double quote runs until the matching closing quote, so whitespace inside of quotes does not separate parts. The quotes are kept in the part.<br/>
+ * 3. Inside of quotes a backslash escapes the closing quote, so an escaped quote does not close the quoted part. Other backslashes are kept as they are, the same way Apache splits arguments, so
+ * unquoted Windows paths and patterns such as \.php$ are not changed.<br/>
+ * 4. Whitespace before or after a comma outside of quotes is removed, so "Deny , Allow" is a single part "Deny,Allow".<br/>
+ * 5. When splitting an enclosure line the angle brackets outside of quotes are removed.<br/>
+ * <br/>
+ * Example: Header set X-Test "a b c" env=foo will be split into "Header" "set" "X-Test" "\"a b c\"" "env=foo"
+ * </p>
+ */
+public final class ValueTokenizer {
+
+    private ValueTokenizer() {
+    }
+
+    /**
+     * Splits a line into its parts.
+     *
+     * @param line
+     *            the line to split
+     * @return an array with the line parts. A blank line is returned as a single empty part.
+     */
+    public static String[] tokenize(String line) {
+        return tokenize(line, false);
+    }
+
+    /**
+     * Splits an enclosure line such as &lt;Directory "/var/www"&gt; into its parts. The angle brackets outside of quotes are removed.
+     *
+     * @param line
+     *            the enclosure line to split
+     * @return an array with the enclosure parts. A blank line is returned as a single empty part.
+     */
+    public static String[] tokenizeEnclosure(String line) {
+        return tokenize(line, true);
+    }
+
+    private static String[] tokenize(String line, boolean enclosure) {
+
+        ArrayList<String> tokens = new ArrayList<String>();
+        StringBuilder token = new StringBuilder();
+
+        int length = line.length();
+        char quote = 0;
+
+        int i = 0;
+        while (i < length) {
+            char c = line.charAt(i);
+
+            if (quote != 0) {
+                token.append(c);
+                if (c == '\\' && i + 1 < length && line.charAt(i + 1) == quote) {
+                    token.append(line.charAt(++i));
+                } else if (c == quote) {
+                    quote = 0;
+                }
+                i++;
+                continue;
+            }
+
+            if (enclosure && (c == '<' || c == '>')) {
+                i++;
+                continue;
+            }
+
+            if (isWhitespace(c)) {
+                int next = i + 1;
+                while (next < length && isWhitespace(line.charAt(next))) {
+                    next++;
+                }
+
+                if (token.length() > 0) {
+                    boolean join = token.charAt(token.length() - 1) == ',' || (next < length && line.charAt(next) == ',');
+                    if (!join) {
+                        tokens.add(token.toString());
+                        token.setLength(0);
+                    }
+                }
+
+                i = next;
+                continue;
+            }
+
+            if ((c == '"' || c == '\'') && token.length() == 0) {
+                quote = c;
+            }
+
+            token.append(c);
+            i++;
+        }
+
+        if (token.length() > 0 || tokens.isEmpty()) {
+            tokens.add(token.toString());
+        }
+
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+}
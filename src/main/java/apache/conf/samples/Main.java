@@ -9,8 +9,8 @@ import apache.conf.parser.Parser;
 
 import java.util.Calendar;
 
-import apache.conf.modules.SharedModuleParser;
-import apache.conf.modules.StaticModuleParser;
+import apache.conf.modules.ModuleList;
+import apache.conf.modules.ModuleParser;
 
 public class Main {
 
@@ -105,12 +105,11 @@ public class Main {
 
             long startTime = Calendar.getInstance().getTimeInMillis();
 
-            StaticModuleParser staticParser = new StaticModuleParser(new File(binFile));
-            SharedModuleParser sharedParser = new SharedModuleParser(new File(binFile));
+            ModuleList modules = new ModuleParser(new File(binFile)).getModules();
 
             String results = "Results : \n\n";
             if (option.equals("-d")) {
-                DirectiveParser parser = new DirectiveParser(rootConfFile, serverRoot, staticParser.getStaticModules(), sharedParser.getSharedModules());
+                DirectiveParser parser = new DirectiveParser(rootConfFile, serverRoot, modules.getStaticModules(), modules.getSharedModules());
 
                 Directive directives[] = parser.getDirective(directiveName, true);
                 for (int i = 0; i < directives.length; i++) {
@@ -120,7 +119,7 @@ public class Main {
             }
 
             if (option.equals("-e")) {
-                EnclosureParser parser = new EnclosureParser(rootConfFile, serverRoot, staticParser.getStaticModules(), sharedParser.getSharedModules());
+                EnclosureParser parser = new EnclosureParser(rootConfFile, serverRoot, modules.getStaticModules(), modules.getSharedModules());
 
                 Enclosure enclosures[] = parser.getEnclosure(enclosureName, true);
                 for (int i = 0; i < enclosures.length; i++) {
@@ -130,7 +129,7 @@ public class Main {
             }
 
             if (option.equals("-ed")) {
-                EnclosureParser parser = new EnclosureParser(rootConfFile, serverRoot, staticParser.getStaticModules(), sharedParser.getSharedModules());
+                EnclosureParser parser = new EnclosureParser(rootConfFile, serverRoot, modules.getStaticModules(), modules.getSharedModules());
 
                 Enclosure enclosures[] = parser.getEnclosure(enclosureName, true);
                 for (int i = 0; i < enclosures.length; i++) {
@@ -145,7 +144,7 @@ public class Main {
             }
 
             if (option.equals("-a")) {
-                Parser parser = new Parser(rootConfFile, serverRoot, staticParser.getStaticModules(), sharedParser.getSharedModules());
+                Parser parser = new Parser(rootConfFile, serverRoot, modules.getStaticModules(), modules.getSharedModules());
 
                 results = "";
                 String files[] = parser.getActiveConfFileList();
@@ -1,8 +1,10 @@
 package apache.conf.samples;
 
-import apache.conf.modules.SharedModuleParser;
-import apache.conf.modules.StaticModuleParser;
+import apache.conf.modules.LoadModuleParser;
+import apache.conf.modules.ModuleList;
+import apache.conf.modules.ModuleParser;
 import apache.conf.parser.ConfigurationLine;
+import apache.conf.parser.ConfigurationVisitorAdapter;
 import apache.conf.parser.Directive;
 import apache.conf.parser.DirectiveParser;
 import apache.conf.parser.Enclosure;
@@ -23,10 +25,9 @@ public class Samples {
     // Search for "Listen" directive
     public static void directiveSearch() throws Exception {
 
-        StaticModuleParser staticParser = new StaticModuleParser(new File(binFile));
-        SharedModuleParser sharedParser = new SharedModuleParser(new File(binFile));
+        ModuleList modules = new ModuleParser(new File(binFile)).getModules();
 
-        DirectiveParser parser = new DirectiveParser(rootConfFile, serverRoot, staticParser.getStaticModules(), sharedParser.getSharedModules());
+        DirectiveParser parser = new DirectiveParser(rootConfFile, serverRoot, modules.getStaticModules(), modules.getSharedModules());
 
         String directiveName = "Listen";
         Directive directives[] = parser.getDirective(directiveName, true);
@@ -39,10 +40,9 @@ public class Samples {
     // Search for "VirtualHost" enclosure
     public static void enclosureSearch() throws Exception {
 
-        StaticModuleParser staticParser = new StaticModuleParser(new File(binFile));
-        SharedModuleParser sharedParser = new SharedModuleParser(new File(binFile));
+        ModuleList modules = new ModuleParser(new File(binFile)).getModules();
 
-        EnclosureParser parser = new EnclosureParser(rootConfFile, serverRoot, staticParser.getStaticModules(), sharedParser.getSharedModules());
+        EnclosureParser parser = new EnclosureParser(rootConfFile, serverRoot, modules.getStaticModules(), modules.getSharedModules());
 
         String enclosureName = "VirtualHost";
         Enclosure enclosures[] = parser.getEnclosure(enclosureName, true);
@@ -54,10 +54,9 @@ public class Samples {
     // Search for ServerName inside VirtualHosts
     public static void directiveInEnclosureSearch() throws Exception {
 
-        StaticModuleParser staticParser = new StaticModuleParser(new File(binFile));
-        SharedModuleParser sharedParser = new SharedModuleParser(new File(binFile));
+        ModuleList modules = new ModuleParser(new File(binFile)).getModules();
 
-        EnclosureParser parser = new EnclosureParser(rootConfFile, serverRoot, staticParser.getStaticModules(), sharedParser.getSharedModules());
+        EnclosureParser parser = new EnclosureParser(rootConfFile, serverRoot, modules.getStaticModules(), modules.getSharedModules());
 
         String enclosureName = "VirtualHost";
         String directiveName = "ServerName";
@@ -75,10 +74,9 @@ public class Samples {
     // Grab Active File List
     public static void grabActiveFileList() throws Exception {
 
-        StaticModuleParser staticParser = new StaticModuleParser(new File(binFile));
-        SharedModuleParser sharedParser = new SharedModuleParser(new File(binFile));
+        ModuleList modules = new ModuleParser(new File(binFile)).getModules();
 
-        Parser parser = new Parser(rootConfFile, serverRoot, staticParser.getStaticModules(), sharedParser.getSharedModules());
+        Parser parser = new Parser(rootConfFile, serverRoot, modules.getStaticModules(), modules.getSharedModules());
 
         String files[] = parser.getActiveConfFileList();
         for (int i = 0; i < files.length; i++) {
@@ -86,6 +84,39 @@ public class Samples {
         }
     }
 
+    // Grab Active File List without running the Apache binary
+    public static void grabActiveFileListOffline() throws Exception {
+
+        ModuleList modules = new LoadModuleParser(rootConfFile, serverRoot).getModules();
+
+        Parser parser = new Parser(rootConfFile, serverRoot, modules.getStaticModules(), modules.getSharedModules());
+
+        String files[] = parser.getActiveConfFileList();
+        for (int i = 0; i < files.length; i++) {
+            System.out.println(files[i]);
+        }
+    }
+
+    // Find the first file with a "ServerName" directive, reading stops at the first match
+    public static void findFirstDirectiveFile() throws Exception {
+
+        ModuleList modules = new ModuleParser(new File(binFile)).getModules();
+
+        Parser parser = new Parser(rootConfFile, serverRoot, modules.getStaticModules(), modules.getSharedModules());
+
+        final String directiveName = "ServerName";
+        parser.visitConfiguration(new ConfigurationVisitorAdapter() {
+            @Override
+            public boolean onLine(ParsableLine line) {
+                if (line.isInclude() && Parser.isDirectiveMatch(line.getConfigurationLine().getProcessedLine(), directiveName)) {
+                    System.out.println(line.getConfigurationLine().getFile());
+                    return false;
+                }
+                return true;
+            }
+        }, true);
+    }
+
     /**
      * 
      * Prints the configuration tree. There are two options with this function:
@@ -101,10 +132,9 @@ public class Samples {
      * @throws Exception
      */
     public static void printConfigTree(boolean clean) throws Exception {
-        StaticModuleParser staticParser = new StaticModuleParser(new File(binFile));
-        SharedModuleParser sharedParser = new SharedModuleParser(new File(binFile));
+        ModuleList modules = new ModuleParser(new File(binFile)).getModules();
 
-        Parser parser = new Parser(rootConfFile, serverRoot, staticParser.getStaticModules(), sharedParser.getSharedModules());
+        Parser parser = new Parser(rootConfFile, serverRoot, modules.getStaticModules(), modules.getSharedModules());
 
         ParsableLine lines[] = parser.getConfigurationParsableLines(true);
 